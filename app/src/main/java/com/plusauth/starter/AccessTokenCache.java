@@ -0,0 +1,197 @@
+package com.plusauth.starter;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import net.openid.appauth.AuthorizationException;
+import net.openid.appauth.TokenResponse;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * A bounded, least-recently-used cache of access tokens keyed by audience and scope set.
+ * Entries are dropped once their token is about to expire, and concurrent requests for the same
+ * key are collapsed into a single in-flight token request.
+ */
+public class AccessTokenCache {
+
+    public static final int DEFAULT_MAX_ENTRIES = 16;
+
+    /**
+     * Tokens expiring within this window are treated as already expired, so that a token handed
+     * out by the cache is still usable by the time it reaches the resource server.
+     */
+    private static final long EXPIRY_TOLERANCE_MS = 60000;
+
+    private final int mMaxEntries;
+    private final LinkedHashMap<Key, CachedToken> mEntries;
+    private final Map<Key, InFlight> mInFlight = new HashMap<>();
+
+    public AccessTokenCache() {
+        this(DEFAULT_MAX_ENTRIES);
+    }
+
+    public AccessTokenCache(int maxEntries) {
+        mMaxEntries = maxEntries;
+        mEntries = new LinkedHashMap<Key, CachedToken>(maxEntries, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, CachedToken> eldest) {
+                return size() > mMaxEntries;
+            }
+        };
+    }
+
+    /**
+     * Returns a cached access token for the key if one exists and has not expired.
+     */
+    @Nullable
+    public synchronized String get(@NonNull Key key) {
+        CachedToken cached = mEntries.get(key);
+        if (cached == null) {
+            return null;
+        }
+
+        if (cached.isExpired()) {
+            mEntries.remove(key);
+            return null;
+        }
+
+        return cached.accessToken;
+    }
+
+    /**
+     * Registers a listener waiting on a token for the key.
+     *
+     * @return the new in-flight request if there was none for the key, in which case the caller
+     * is responsible for fetching the token and calling {@link #complete}; or null if the
+     * listener joined a request already in flight.
+     */
+    @Nullable
+    public synchronized InFlight enqueue(
+            @NonNull Key key,
+            @NonNull AuthManager.AccessTokenListener listener) {
+        InFlight inFlight = mInFlight.get(key);
+        if (inFlight != null) {
+            inFlight.waiting.add(listener);
+            return null;
+        }
+
+        inFlight = new InFlight(key);
+        inFlight.waiting.add(listener);
+        mInFlight.put(key, inFlight);
+        return inFlight;
+    }
+
+    /**
+     * Stores the outcome of the in-flight request and notifies every listener that was waiting
+     * on it. Tokens without an expiry time are handed out but never cached.
+     */
+    public void complete(
+            @NonNull InFlight inFlight,
+            @Nullable TokenResponse response,
+            @Nullable AuthorizationException ex) {
+        List<AuthManager.AccessTokenListener> waiting;
+        String accessToken = response != null ? response.accessToken : null;
+        synchronized (this) {
+            if (!inFlight.detached
+                    && accessToken != null
+                    && response.accessTokenExpirationTime != null) {
+                mEntries.put(inFlight.key,
+                        new CachedToken(accessToken, response.accessTokenExpirationTime));
+            }
+            if (mInFlight.get(inFlight.key) == inFlight) {
+                mInFlight.remove(inFlight.key);
+            }
+            waiting = new ArrayList<>(inFlight.waiting);
+            inFlight.waiting.clear();
+        }
+
+        for (AuthManager.AccessTokenListener listener : waiting) {
+            listener.onCompleted(accessToken, ex);
+        }
+    }
+
+    /**
+     * Discards all cached tokens, such as on sign-out. Requests already in flight still notify
+     * the listeners waiting on them, but are detached from the cache: the tokens they return are
+     * not cached, and later requests for the same key start a new token request instead of
+     * joining them.
+     */
+    public synchronized void clear() {
+        mEntries.clear();
+        for (InFlight inFlight : mInFlight.values()) {
+            inFlight.detached = true;
+        }
+        mInFlight.clear();
+    }
+
+    /**
+     * Identifies a token by the audience it is issued for and the scopes it carries. The scope
+     * set is normalized, so the order in which scopes are given does not matter.
+     */
+    public static final class Key {
+        @Nullable
+        public final String audience;
+        @NonNull
+        public final Set<String> scopes;
+
+        public Key(@Nullable String audience, @NonNull Collection<String> scopes) {
+            this.audience = audience;
+            this.scopes = Collections.unmodifiableSet(new TreeSet<>(scopes));
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return (audience == null ? other.audience == null : audience.equals(other.audience))
+                    && scopes.equals(other.scopes);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (audience == null ? 0 : audience.hashCode()) + scopes.hashCode();
+        }
+    }
+
+    /**
+     * A token request in flight, and the listeners waiting on it.
+     */
+    public static final class InFlight {
+        final Key key;
+        // guarded by the cache
+        final List<AuthManager.AccessTokenListener> waiting = new ArrayList<>();
+        boolean detached;
+
+        InFlight(Key key) {
+            this.key = key;
+        }
+    }
+
+    private static final class CachedToken {
+        final String accessToken;
+        final long expiresAt;
+
+        CachedToken(String accessToken, long expiresAt) {
+            this.accessToken = accessToken;
+            this.expiresAt = expiresAt;
+        }
+
+        boolean isExpired() {
+            return System.currentTimeMillis() + EXPIRY_TOLERANCE_MS >= expiresAt;
+        }
+    }
+}
@@ -6,6 +6,8 @@ import android.net.Uri;
 import android.util.Log;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
 import androidx.browser.customtabs.CustomTabsIntent;
 
 import net.openid.appauth.AppAuthConfiguration;
@@ -17,35 +19,52 @@ import net.openid.appauth.AuthorizationService;
 import net.openid.appauth.AuthorizationServiceConfiguration;
 import net.openid.appauth.AuthorizationServiceDiscovery;
 import net.openid.appauth.ClientAuthentication;
+import net.openid.appauth.GrantTypeValues;
+import net.openid.appauth.RegistrationRequest;
+import net.openid.appauth.RegistrationResponse;
 import net.openid.appauth.ResponseTypeValues;
 import net.openid.appauth.TokenRequest;
+import net.openid.appauth.TokenResponse;
 import net.openid.appauth.browser.AnyBrowserMatcher;
 import net.openid.appauth.browser.BrowserMatcher;
+import net.openid.appauth.connectivity.ConnectionBuilder;
 import net.openid.appauth.connectivity.DefaultConnectionBuilder;
 
 import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.io.IOException;
-import java.net.HttpURLConnection;
-import java.net.MalformedURLException;
-import java.net.URL;
-import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
 
-import okio.Okio;
-
 
 public class AuthManager {
 
     public static final int RC_AUTH = 100;
     public static final int RC_SIGN_OUT = 101;
     private static final String TAG = "AuthManager";
+    private static final String PARAM_RESOURCE = "resource";
+    private static final long REGISTRATION_RENEWAL_WINDOW_MS = TimeUnit.DAYS.toMillis(1);
+    private static final AccessTokenCache sTokenCache = new AccessTokenCache();
+    private static final RefreshGrantQueue sRefreshGrants = new RefreshGrantQueue();
     private final AtomicReference<AuthorizationRequest> mAuthRequest = new AtomicReference<>();
     private final AtomicReference<CustomTabsIntent> mAuthIntent = new AtomicReference<>();
+    // guarded by mAuthRequest; set once the current auth request has been handed to the browser
+    private boolean mAuthRequestLaunched;
     private final Runnable onReadyCallback;
+    private final ConnectionBuilder mConnectionBuilder;
+    private final AuthOperationQueue mOperationQueue;
+    // runs the queue's blocking fetches, keeping its scheduler thread free for other operations
+    private final ExecutorService mNetworkExecutor = Executors.newCachedThreadPool();
+    private final List<AuthorizationService.TokenResponseCallback> mPendingRefreshCallbacks =
+            new ArrayList<>();
+    private final List<UserInfoListener> mPendingUserInfoListeners = new ArrayList<>();
     private AuthorizationService mAuthService;
     private AuthStateManager mStateManager;
     private ExecutorService mExecutor;
@@ -56,15 +75,28 @@ public class AuthManager {
 
 
     public AuthManager(Context context, Runnable onReadyCallback) {
+        this(context,
+                onReadyCallback,
+                DefaultConnectionBuilder.INSTANCE,
+                new NetworkConnectivitySignal(context));
+    }
+
+    /**
+     * @param connectionBuilder opens the connections of AppAuth's requests, such as token
+     *     requests, so that tests can answer them from a fake identity provider.
+     */
+    @VisibleForTesting
+    AuthManager(
+            Context context,
+            Runnable onReadyCallback,
+            ConnectionBuilder connectionBuilder,
+            ConnectivitySignal connectivity) {
         this.onReadyCallback = onReadyCallback;
+        mConnectionBuilder = connectionBuilder;
         mExecutor = Executors.newSingleThreadExecutor();
         mStateManager = AuthStateManager.getInstance(context);
-        mAuthService = new AuthorizationService(
-                context,
-                new AppAuthConfiguration.Builder()
-                        .setConnectionBuilder(DefaultConnectionBuilder.INSTANCE)
-                        .setBrowserMatcher(mBrowserMatcher)
-                        .build());
+        mOperationQueue = new AuthOperationQueue(connectivity, this::onOperationDropped);
+        mAuthService = createAuthorizationService(context);
     }
 
     public void retry(Context context) {
@@ -85,6 +117,11 @@ public class AuthManager {
     }
 
     public void destroy() {
+        mOperationQueue.shutdown();
+        mNetworkExecutor.shutdownNow();
+        if (Config.HEDGE_IDP_GETS) {
+            HedgedGet.getInstance().logMetrics();
+        }
         if (mAuthService != null) {
             mAuthService.dispose();
         }
@@ -105,23 +142,81 @@ public class AuthManager {
      */
     public void initializeAppAuth(Context context) {
         mExecutor.submit(() -> {
-            Log.i(TAG, "Initializing AppAuth");
-            recreateAuthorizationService(context);
-
-            if (mStateManager.getCurrent().getAuthorizationServiceConfiguration() != null) {
-                // configuration is already created, skip to client initialization
-                Log.i(TAG, "auth config already established");
-                initializeAuthRequest();
-                return;
+            AuthTrace.begin("initializeAppAuth");
+            try {
+                Log.i(TAG, "Initializing AppAuth");
+                recreateAuthorizationService(context);
+
+                AuthorizationServiceConfiguration storedConfig =
+                        mStateManager.getCurrent().getAuthorizationServiceConfiguration();
+                if (isConfiguredIssuer(storedConfig)) {
+                    // configuration is already created, skip to client initialization
+                    Log.i(TAG, "auth config already established");
+                    initializeClient();
+                    return;
+                }
+                if (storedConfig != null) {
+                    // discovery replaces the stored state, including the old tenant's
+                    // registration and tokens
+                    Log.i(TAG, "Stored auth config belongs to another tenant");
+                }
+
+                Log.i(TAG, "Retrieving OpenID discovery doc");
+                mOperationQueue.submit(AuthOperationQueue.Operation.DISCOVERY,
+                        (finalAttempt, done) -> runOffQueue(() -> {
+                            int traceCookie = AuthTrace.beginAsync("discovery");
+                            fetchConfiguration((config, ex) -> {
+                                AuthTrace.endAsync("discovery", traceCookie);
+                                if (config == null && !finalAttempt && isNetworkError(ex)) {
+                                    done.onFinished(true);
+                                    return;
+                                }
+
+                                done.onFinished(false);
+                                handleConfigurationRetrievalResult(config, ex);
+                            });
+                        }));
+            } finally {
+                AuthTrace.end();
             }
-
-            Log.i(TAG, "Retrieving OpenID discovery doc");
-            AuthorizationServiceConfiguration.fetchFromIssuer(
-                    Config.AUTH_URI,
-                    this::handleConfigurationRetrievalResult);
         });
     }
 
+    /**
+     * Retrieves the discovery document. With hedging enabled the document is fetched through
+     * {@link HedgedGet} on the calling thread; otherwise AppAuth fetches it asynchronously.
+     */
+    private void fetchConfiguration(
+            AuthorizationServiceConfiguration.RetrieveConfigurationCallback callback) {
+        if (!Config.HEDGE_IDP_GETS) {
+            AuthorizationServiceConfiguration.fetchFromIssuer(Config.AUTH_URI, callback);
+            return;
+        }
+
+        Uri discoveryUri = Config.AUTH_URI.buildUpon()
+                .appendPath(".well-known")
+                .appendPath("openid-configuration")
+                .build();
+        try {
+            String response = HedgedGet.getInstance().get(
+                    discoveryUri,
+                    Collections.emptyMap());
+            AuthorizationServiceDiscovery discovery =
+                    new AuthorizationServiceDiscovery(new JSONObject(response));
+            callback.onFetchConfigurationCompleted(
+                    new AuthorizationServiceConfiguration(discovery), null);
+        } catch (IOException ex) {
+            callback.onFetchConfigurationCompleted(null, AuthorizationException.fromTemplate(
+                    AuthorizationException.GeneralErrors.NETWORK_ERROR, ex));
+        } catch (JSONException ex) {
+            callback.onFetchConfigurationCompleted(null, AuthorizationException.fromTemplate(
+                    AuthorizationException.GeneralErrors.JSON_DESERIALIZATION_ERROR, ex));
+        } catch (AuthorizationServiceDiscovery.MissingArgumentException ex) {
+            callback.onFetchConfigurationCompleted(null, AuthorizationException.fromTemplate(
+                    AuthorizationException.GeneralErrors.INVALID_DISCOVERY_DOCUMENT, ex));
+        }
+    }
+
     private void handleConfigurationRetrievalResult(
             AuthorizationServiceConfiguration config,
             AuthorizationException ex) {
@@ -129,20 +224,189 @@ public class AuthManager {
             throw new RuntimeException("Failed to retrieve discovery document: " + ex.getMessage());
         }
 
+        if (!isConfiguredIssuer(config)) {
+            // required by OpenID Connect Discovery, and what identifies the stored config and
+            // registration as this tenant's on the next start
+            throw new RuntimeException("Discovery document issuer "
+                    + config.discoveryDoc.getIssuer() + " does not match " + Config.AUTH_URI);
+        }
+
         Log.i(TAG, "Discovery document retrieved");
         mStateManager.replace(new AuthState(config));
+        initializeClient();
+    }
+
+    /**
+     * Makes sure a client id is available before the auth request is created. With dynamic
+     * registration enabled, a stored registration for the current tenant is reused until its
+     * client secret expires, and one that is close to expiry is renewed in the background.
+     *
+     * This only runs while signed out. A signed-in user never reaches it, and their registration
+     * is not renewed: a new registration discards the tokens issued to the old client, so
+     * renewing would sign them out. Their next sign-in after the secret expires registers anew.
+     */
+    private void initializeClient() {
+        if (!Config.DYNAMIC_REGISTRATION) {
+            initializeAuthRequest();
+            return;
+        }
+
+        RegistrationResponse registration = getReusableRegistration();
+        if (registration == null) {
+            Log.i(TAG, "Registering client");
+            performRegistrationRequest(this::handleRegistrationResult);
+            return;
+        }
+
+        if (clientSecretExpiresWithin(registration, REGISTRATION_RENEWAL_WINDOW_MS)) {
+            Log.i(TAG, "Client registration about to expire, renewing in background");
+            performRegistrationRequest(this::handleBackgroundRegistrationResult);
+        }
+        initializeAuthRequest();
+    }
+
+    private void handleRegistrationResult(
+            RegistrationResponse response,
+            AuthorizationException ex) {
+        if (response == null) {
+            throw new RuntimeException("Failed to register client: " + ex.getMessage());
+        }
+
+        Log.i(TAG, "Client registered");
+        mStateManager.updateAfterRegistration(response, ex);
         initializeAuthRequest();
     }
 
+    private void handleBackgroundRegistrationResult(
+            RegistrationResponse response,
+            AuthorizationException ex) {
+        if (response == null) {
+            // the current registration is still valid, renewal is attempted again on next start
+            Log.w(TAG, "Failed to renew client registration", ex);
+            return;
+        }
+
+        synchronized (mAuthRequest) {
+            if (mAuthRequestLaunched) {
+                // the browser holds a request for the current client, and its code can only be
+                // exchanged with that client's credentials; the renewal is retried next start
+                Log.i(TAG, "Authorization in progress, deferring renewed client registration");
+                return;
+            }
+
+            Log.i(TAG, "Client registration renewed");
+            mStateManager.updateAfterRegistration(response, ex);
+            createAuthRequest();
+        }
+    }
+
+    private void performRegistrationRequest(
+            AuthorizationService.RegistrationResponseCallback callback) {
+        AuthorizationServiceConfiguration config =
+                mStateManager.getCurrent().getAuthorizationServiceConfiguration();
+        if (config.registrationEndpoint == null) {
+            throw new RuntimeException("Dynamic client registration not supported by tenant");
+        }
+
+        RegistrationRequest request = new RegistrationRequest.Builder(
+                config,
+                Collections.singletonList(Config.REDIRECT_URI))
+                .build();
+
+        int traceCookie = AuthTrace.beginAsync("registerClient");
+        mAuthService.performRegistrationRequest(
+                request,
+                (response, ex) -> {
+                    AuthTrace.endAsync("registerClient", traceCookie);
+                    callback.onRegistrationRequestCompleted(response, ex);
+                });
+    }
+
+    /**
+     * Returns the stored registration if it was made with the configured tenant and its client
+     * secret has not expired yet. The tenant is identified by the issuer in the discovery
+     * document the registration was made with.
+     */
+    @Nullable
+    private RegistrationResponse getReusableRegistration() {
+        RegistrationResponse registration =
+                mStateManager.getCurrent().getLastRegistrationResponse();
+        if (registration == null) {
+            return null;
+        }
+
+        if (!isConfiguredIssuer(registration.request.configuration)) {
+            Log.i(TAG, "Stored client registration belongs to another tenant");
+            return null;
+        }
+
+        if (clientSecretExpiresWithin(registration, 0)) {
+            Log.i(TAG, "Stored client registration expired");
+            return null;
+        }
+
+        return registration;
+    }
+
+    /**
+     * Returns whether the configuration was discovered from {@link Config#AUTH_URI}. A
+     * configuration without a discovery document cannot be attributed to a tenant, so it does
+     * not match.
+     */
+    private static boolean isConfiguredIssuer(
+            @Nullable AuthorizationServiceConfiguration config) {
+        if (config == null || config.discoveryDoc == null) {
+            return false;
+        }
+
+        return withoutTrailingSlash(Config.AUTH_URI.toString())
+                .equals(withoutTrailingSlash(config.discoveryDoc.getIssuer()));
+    }
+
+    private static String withoutTrailingSlash(String uri) {
+        return uri.endsWith("/") ? uri.substring(0, uri.length() - 1) : uri;
+    }
+
+    private static boolean clientSecretExpiresWithin(
+            RegistrationResponse registration,
+            long windowMs) {
+        // client_secret_expires_at is in seconds, and 0 means the secret never expires
+        Long expiresAt = registration.clientSecretExpiresAt;
+        if (expiresAt == null || expiresAt == 0) {
+            return false;
+        }
+
+        return System.currentTimeMillis() + windowMs >= TimeUnit.SECONDS.toMillis(expiresAt);
+    }
+
+    private String getClientId() {
+        RegistrationResponse registration =
+                mStateManager.getCurrent().getLastRegistrationResponse();
+        if (Config.DYNAMIC_REGISTRATION && registration != null) {
+            return registration.clientId;
+        }
+
+        return Config.CLIENT_ID;
+    }
+
     /**
      * Performs the authorization request
      */
     private void doAuth(AuthenticateListener authenticateListener) {
-        Intent intent = mAuthService.getAuthorizationRequestIntent(
-                mAuthRequest.get(),
-                mAuthIntent.get());
-        authenticateListener.startActivityForResult(intent, RC_AUTH);
-
+        AuthTrace.begin("launchBrowser");
+        try {
+            AuthorizationRequest request;
+            synchronized (mAuthRequest) {
+                mAuthRequestLaunched = true;
+                request = mAuthRequest.get();
+            }
+            Intent intent = mAuthService.getAuthorizationRequestIntent(
+                    request,
+                    mAuthIntent.get());
+            authenticateListener.startActivityForResult(intent, RC_AUTH);
+        } finally {
+            AuthTrace.end();
+        }
     }
 
     private void recreateAuthorizationService(Context context) {
@@ -150,37 +414,54 @@ public class AuthManager {
             Log.i(TAG, "Discarding existing AuthService instance");
             mAuthService.dispose();
         }
-        mAuthService = new AuthorizationService(
+        mAuthService = createAuthorizationService(context);
+        synchronized (mAuthRequest) {
+            mAuthRequest.set(null);
+            mAuthRequestLaunched = false;
+        }
+        mAuthIntent.set(null);
+    }
+
+    private AuthorizationService createAuthorizationService(Context context) {
+        return new AuthorizationService(
                 context,
                 new AppAuthConfiguration.Builder()
-                        .setConnectionBuilder(DefaultConnectionBuilder.INSTANCE)
+                        .setConnectionBuilder(mConnectionBuilder)
                         .setBrowserMatcher(mBrowserMatcher)
                         .build());
-        mAuthRequest.set(null);
-        mAuthIntent.set(null);
     }
 
     private CustomTabsIntent warmUpBrowser(Uri uri) {
-        Log.i(TAG, "Warming up browser instance for auth request");
-        CustomTabsIntent.Builder intentBuilder =
-                mAuthService.createCustomTabsIntentBuilder(uri);
-        CustomTabsIntent customTabsIntent = intentBuilder.build();
+        AuthTrace.begin("warmUpBrowser");
+        try {
+            Log.i(TAG, "Warming up browser instance for auth request");
+            CustomTabsIntent.Builder intentBuilder =
+                    mAuthService.createCustomTabsIntentBuilder(uri);
+            CustomTabsIntent customTabsIntent = intentBuilder.build();
 
-        customTabsIntent.intent.setData(uri);
+            customTabsIntent.intent.setData(uri);
 
-        return customTabsIntent;
+            return customTabsIntent;
+        } finally {
+            AuthTrace.end();
+        }
     }
 
     private void createAuthRequest() {
-        Log.i(TAG, "Creating auth request");
-        AuthorizationRequest.Builder authRequestBuilder = new AuthorizationRequest.Builder(
-                mStateManager.getCurrent().getAuthorizationServiceConfiguration(),
-                Config.CLIENT_ID,
-                ResponseTypeValues.CODE,
-                Config.REDIRECT_URI)
-                .setScope(Config.SCOPE);
-
-        mAuthRequest.set(authRequestBuilder.build());
+        AuthTrace.begin("createAuthRequest");
+        try {
+            Log.i(TAG, "Creating auth request");
+            AuthorizationRequest.Builder authRequestBuilder = new AuthorizationRequest.Builder(
+                    mStateManager.getCurrent().getAuthorizationServiceConfiguration(),
+                    getClientId(),
+                    ResponseTypeValues.CODE,
+                    Config.REDIRECT_URI)
+                    .setScope(Config.SCOPE);
+
+            mAuthRequest.set(authRequestBuilder.build());
+        } finally {
+            AuthTrace.end();
+        }
     }
 
     private void initializeAuthRequest() {
@@ -197,6 +478,14 @@ public class AuthManager {
         return mStateManager.getCurrent();
     }
 
+    public ScopeSet getGrantedScopes() {
+        return mStateManager.getGrantedScopes();
+    }
+
+    public boolean hasScope(String scope) {
+        return mStateManager.getGrantedScopes().contains(scope);
+    }
+
     /*
      * The stored AuthState is incomplete, so check if we are currently receiving the result of
      * the authorization flow from the browser.
@@ -220,26 +509,170 @@ public class AuthManager {
         }
     }
 
+    /**
+     * Refreshes the access token, waiting for connectivity if the device is offline. Calls made
+     * while a refresh is already queued are served by that refresh.
+     */
     public void refreshAccessToken(AuthorizationService.TokenResponseCallback callback) {
-        performTokenRequest(
-                mStateManager.getCurrent().createTokenRefreshRequest(),
-                (response, ex) -> {
-                    mStateManager.updateAfterTokenResponse(response, ex);
+        synchronized (mPendingRefreshCallbacks) {
+            mPendingRefreshCallbacks.add(callback);
+        }
 
-                    callback.onTokenRequestCompleted(response, ex);
-                });
+        // the callbacks are notified before onComplete starts the next grant, which may fail
+        // on the same call stack
+        mOperationQueue.submit(AuthOperationQueue.Operation.REFRESH, (finalAttempt, done) ->
+                sRefreshGrants.enqueue(onComplete -> {
+                    try {
+                        TokenRequest request =
+                                mStateManager.getCurrent().createTokenRefreshRequest();
+                        int traceCookie = AuthTrace.beginAsync("refreshToken");
+                        try {
+                            performTokenRequest(request, (response, ex) -> {
+                                AuthTrace.endAsync("refreshToken", traceCookie);
+                                try {
+                                    if (response == null
+                                            && !finalAttempt
+                                            && isNetworkError(ex)) {
+                                        done.onFinished(true);
+                                        return;
+                                    }
+
+                                    mStateManager.updateAfterTokenResponse(response, ex);
+                                    done.onFinished(false);
+                                    notifyRefreshCallbacks(response, ex);
+                                } finally {
+                                    onComplete.run();
+                                }
+                            });
+                        } catch (RuntimeException ex) {
+                            AuthTrace.endAsync("refreshToken", traceCookie);
+                            throw ex;
+                        }
+                    } catch (RuntimeException ex) {
+                        // e.g. no refresh token, or this manager's service has been disposed
+                        Log.w(TAG, "Failed to send refresh token request", ex);
+                        try {
+                            done.onFinished(false);
+                            notifyRefreshCallbacks(null, requestFailed(ex));
+                        } finally {
+                            onComplete.run();
+                        }
+                    }
+                }));
+    }
+
+    private void notifyRefreshCallbacks(
+            @Nullable TokenResponse response,
+            @Nullable AuthorizationException ex) {
+        for (AuthorizationService.TokenResponseCallback pending
+                : drain(mPendingRefreshCallbacks)) {
+            pending.onTokenRequestCompleted(response, ex);
+        }
     }
 
     public void exchangeAuthorizationCode(AuthorizationResponse authResponse, AuthorizationService.TokenResponseCallback callback) {
+        int traceCookie = AuthTrace.beginAsync("exchangeAuthorizationCode");
         performTokenRequest(
                 authResponse.createTokenExchangeRequest(),
                 (response, ex) -> {
+                    AuthTrace.endAsync("exchangeAuthorizationCode", traceCookie);
                     mStateManager.updateAfterTokenResponse(response, ex);
 
                     callback.onTokenRequestCompleted(response, ex);
                 });
     }
 
+    /**
+     * Retrieves an access token for the given audience and scopes. A cached token is reused while
+     * it is valid; otherwise a new one is obtained with the refresh token of the current state,
+     * passing the audience as the RFC 8707 resource parameter. Concurrent calls for the same
+     * audience and scopes share a single token request. Like {@link #refreshAccessToken}, the
+     * grant is serialized with all other refresh token grants, and a rotated refresh token is
+     * stored without replacing the primary access token.
+     */
+    public void getAccessToken(
+            @Nullable String audience,
+            @NonNull Collection<String> scopes,
+            AccessTokenListener accessTokenListener) {
+        AccessTokenCache.Key key = new AccessTokenCache.Key(audience, scopes);
+        String cachedToken = sTokenCache.get(key);
+        if (cachedToken != null) {
+            accessTokenListener.onCompleted(cachedToken, null);
+            return;
+        }
+
+        AccessTokenCache.InFlight inFlight = sTokenCache.enqueue(key, accessTokenListener);
+        if (inFlight == null) {
+            // a request for the same token is already in flight
+            return;
+        }
+
+        // the refresh token is read when the grant starts, after any earlier grant has stored
+        // a rotated one
+        sRefreshGrants.enqueue(onComplete -> {
+            try {
+                AuthState currentState = mStateManager.getCurrent();
+                if (currentState.getRefreshToken() == null) {
+                    completeAccessTokenGrant(inFlight, null,
+                            AuthorizationException.TokenRequestErrors.INVALID_GRANT, onComplete);
+                    return;
+                }
+
+                TokenRequest.Builder requestBuilder = new TokenRequest.Builder(
+                        currentState.getAuthorizationServiceConfiguration(),
+                        getClientId())
+                        .setGrantType(GrantTypeValues.REFRESH_TOKEN)
+                        .setRefreshToken(currentState.getRefreshToken());
+                if (!key.scopes.isEmpty()) {
+                    requestBuilder.setScopes(key.scopes);
+                }
+                if (audience != null) {
+                    requestBuilder.setAdditionalParameters(
+                            Collections.singletonMap(PARAM_RESOURCE, audience));
+                }
+                TokenRequest request = requestBuilder.build();
+
+                int traceCookie = AuthTrace.beginAsync("fetchAccessToken");
+                try {
+                    performTokenRequest(request, (response, ex) -> {
+                        AuthTrace.endAsync("fetchAccessToken", traceCookie);
+                        if (response != null
+                                && response.refreshToken != null
+                                && !response.refreshToken.equals(
+                                        mStateManager.getCurrent().getRefreshToken())) {
+                            // the provider rotated the refresh token, the old one is spent
+                            mStateManager.updateRefreshToken(response.refreshToken);
+                        }
+                        completeAccessTokenGrant(inFlight, response, ex, onComplete);
+                    });
+                } catch (RuntimeException ex) {
+                    AuthTrace.endAsync("fetchAccessToken", traceCookie);
+                    throw ex;
+                }
+            } catch (RuntimeException ex) {
+                // e.g. this manager's service has been disposed
+                Log.w(TAG, "Failed to send access token request", ex);
+                completeAccessTokenGrant(inFlight, null, requestFailed(ex), onComplete);
+            }
+        });
+    }
+
+    /**
+     * Notifies the listeners waiting on the token, then lets the next refresh token grant start.
+     * The next grant may fail on the same call stack, so it must not run first.
+     */
+    private static void completeAccessTokenGrant(
+            AccessTokenCache.InFlight inFlight,
+            @Nullable TokenResponse response,
+            @Nullable AuthorizationException ex,
+            Runnable onComplete) {
+        try {
+            sTokenCache.complete(inFlight, response, ex);
+        } finally {
+            onComplete.run();
+        }
+    }
+
     private void performTokenRequest(
             TokenRequest request,
             AuthorizationService.TokenResponseCallback callback) {
@@ -267,26 +700,97 @@ public class AuthManager {
                         .getAuthorizationServiceConfiguration()
                         .discoveryDoc;
 
-        URL userInfoEndpoint;
-        try {
-            userInfoEndpoint = new URL(discovery.getUserinfoEndpoint().toString());
-        } catch (MalformedURLException urlEx) {
-            throw new RuntimeException("Failed to construct user info endpoint URL", urlEx);
+        Uri userInfoEndpoint = discovery.getUserinfoEndpoint();
+        if (userInfoEndpoint == null) {
+            throw new IllegalStateException("Discovery document has no userinfo endpoint");
         }
 
-        mExecutor.submit(() -> {
-            try {
-                HttpURLConnection conn =
-                        (HttpURLConnection) userInfoEndpoint.openConnection();
-                conn.setRequestProperty("Authorization", "Bearer " + getState().getAccessToken());
-                conn.setInstanceFollowRedirects(false);
-                String response = Okio.buffer(Okio.source(conn.getInputStream()))
-                        .readString(StandardCharsets.UTF_8);
-                userInfoListener.onCompleted(new JSONObject(response), null);
-            } catch (IOException | JSONException ex) {
-                userInfoListener.onCompleted(null, ex);
-            }
-        });
+        synchronized (mPendingUserInfoListeners) {
+            mPendingUserInfoListeners.add(userInfoListener);
+        }
+
+        mOperationQueue.submit(AuthOperationQueue.Operation.USERINFO, (finalAttempt, done) ->
+                runOffQueue(() -> {
+                    int traceCookie = AuthTrace.beginAsync("fetchUserInfo");
+                    JSONObject result = null;
+                    Exception error = null;
+                    try {
+                        String response = HedgedGet.getInstance().get(
+                                userInfoEndpoint,
+                                Collections.singletonMap(
+                                        "Authorization", "Bearer " + getState().getAccessToken()));
+                        result = new JSONObject(response);
+                    } catch (HedgedGet.HttpStatusException | JSONException ex) {
+                        error = ex;
+                    } catch (IOException ex) {
+                        if (!finalAttempt) {
+                            done.onFinished(true);
+                            return;
+                        }
+                        error = ex;
+                    } finally {
+                        AuthTrace.endAsync("fetchUserInfo", traceCookie);
+                    }
+
+                    done.onFinished(false);
+                    for (UserInfoListener pending : drain(mPendingUserInfoListeners)) {
+                        pending.onCompleted(result, error);
+                    }
+                }));
+    }
+
+    /**
+     * Runs a queued task's fetch on the network executor. The fetch may block, which would
+     * otherwise hold up every other queued operation and retry behind it. Once the manager is
+     * destroyed the executor rejects the fetch, and the queue drops the operation.
+     */
+    private void runOffQueue(Runnable fetch) {
+        mNetworkExecutor.execute(fetch);
+    }
+
+    /**
+     * Fails the callers waiting on an operation the queue dropped, which would otherwise never
+     * hear back.
+     */
+    private void onOperationDropped(
+            AuthOperationQueue.Operation operation,
+            Exception reason) {
+        Log.w(TAG, "Dropped " + operation, reason);
+        switch (operation) {
+            case REFRESH:
+                notifyRefreshCallbacks(null, requestFailed(reason));
+                break;
+            case USERINFO:
+                for (UserInfoListener pending : drain(mPendingUserInfoListeners)) {
+                    pending.onCompleted(null, requestFailed(reason));
+                }
+                break;
+            case DISCOVERY:
+                // nobody waits on discovery; the app is not ready until initializeAppAuth is
+                // retried
+                break;
+        }
+    }
+
+    /**
+     * Wraps a failure to send a request, so that it can be reported to the same listeners as a
+     * failed response.
+     */
+    private static AuthorizationException requestFailed(Exception ex) {
+        return AuthorizationException.fromTemplate(
+                AuthorizationException.GeneralErrors.PROGRAM_CANCELED_AUTH_FLOW, ex);
+    }
+
+    private static boolean isNetworkError(AuthorizationException ex) {
+        return AuthorizationException.GeneralErrors.NETWORK_ERROR.equals(ex);
+    }
+
+    private static <T> List<T> drain(List<T> pending) {
+        synchronized (pending) {
+            List<T> drained = new ArrayList<>(pending);
+            pending.clear();
+            return drained;
+        }
     }
 
     private Uri getEndSessionEndpoint() {
@@ -321,7 +825,13 @@ public class AuthManager {
         AuthState currentState = mStateManager.getCurrent();
         AuthState clearedState =
                 new AuthState(currentState.getAuthorizationServiceConfiguration());
+        // keep the client registration as well, so that signing in again does not register anew
+        RegistrationResponse registration = currentState.getLastRegistrationResponse();
+        if (registration != null) {
+            clearedState.update(registration);
+        }
         mStateManager.replace(clearedState);
+        sTokenCache.clear();
     }
 
 
@@ -329,6 +839,10 @@ public class AuthManager {
         void onCompleted(JSONObject result, Exception ex);
     }
 
+    public interface AccessTokenListener {
+        void onCompleted(String accessToken, AuthorizationException ex);
+    }
+
     public interface AuthenticateListener {
         void startActivityForResult(Intent intent, int code);
     }
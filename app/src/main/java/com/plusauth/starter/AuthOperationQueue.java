@@ -0,0 +1,253 @@
+package com.plusauth.starter;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.VisibleForTesting;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Queues auth operations that need the network, such as discovery, token refresh and userinfo.
+ * While offline, operations are held until the {@link ConnectivitySignal} reports a network, at
+ * which point everything pending is flushed at once. At most one operation of each kind is
+ * pending; submitting another while one is queued merges it into the queued one. Operations that
+ * fail for a transient reason are retried with exponential backoff and jitter. Operations that
+ * are dropped without finishing, because their task threw or the queue was shut down, are
+ * reported to the {@link OnDroppedListener}, so that callers waiting on them can be failed.
+ */
+public class AuthOperationQueue {
+
+    private static final String TAG = "AuthOperationQueue";
+
+    @VisibleForTesting
+    static final int MAX_ATTEMPTS = 5;
+    private static final long BASE_BACKOFF_MS = 500;
+    private static final long MAX_BACKOFF_MS = 30000;
+
+    private final ConnectivitySignal mConnectivity;
+    private final OnDroppedListener mOnDroppedListener;
+    private final long mBaseBackoffMs;
+    private final ScheduledExecutorService mScheduler =
+            Executors.newSingleThreadScheduledExecutor();
+    private final Random mRandom = new Random();
+
+    // guarded by this; enum order runs discovery before the operations that depend on it
+    private final EnumMap<Operation, Pending> mPending = new EnumMap<>(Operation.class);
+
+    public AuthOperationQueue(
+            @NonNull ConnectivitySignal connectivity,
+            @NonNull OnDroppedListener onDroppedListener) {
+        this(connectivity, onDroppedListener, BASE_BACKOFF_MS);
+    }
+
+    @VisibleForTesting
+    AuthOperationQueue(
+            @NonNull ConnectivitySignal connectivity,
+            @NonNull OnDroppedListener onDroppedListener,
+            long baseBackoffMs) {
+        mConnectivity = connectivity;
+        mOnDroppedListener = onDroppedListener;
+        mBaseBackoffMs = baseBackoffMs;
+        mConnectivity.setOnConnectedListener(this::flush);
+    }
+
+    /**
+     * Queues the operation, starting it right away if the device is online. If an operation of
+     * the same kind is already queued, the new task is dropped and the caller is served by the
+     * queued one.
+     *
+     * @return true if the task was queued, false if it was merged into a queued operation.
+     */
+    public boolean submit(@NonNull Operation operation, @NonNull Task task) {
+        Pending pending;
+        synchronized (this) {
+            if (mPending.containsKey(operation)) {
+                Log.i(TAG, "Merging " + operation + " into queued operation");
+                return false;
+            }
+
+            pending = new Pending(task);
+            mPending.put(operation, pending);
+            if (!mConnectivity.isConnected()) {
+                Log.i(TAG, "Offline, holding " + operation + " until connected");
+                return true;
+            }
+
+            pending.running = true;
+        }
+
+        schedule(operation, pending, 0);
+        return true;
+    }
+
+    /**
+     * Runs every queued operation that is held for connectivity. Called when connectivity
+     * returns; the attempt count starts over since failures while offline say nothing about the
+     * operation itself. Operations running or waiting on a backoff are left alone.
+     */
+    public void flush() {
+        Map<Operation, Pending> ready = new EnumMap<>(Operation.class);
+        synchronized (this) {
+            for (Map.Entry<Operation, Pending> entry : mPending.entrySet()) {
+                Pending pending = entry.getValue();
+                if (pending.running) {
+                    continue;
+                }
+
+                pending.attempts = 0;
+                pending.running = true;
+                ready.put(entry.getKey(), pending);
+            }
+        }
+
+        if (!ready.isEmpty()) {
+            Log.i(TAG, "Connected, flushing " + ready.keySet());
+        }
+        for (Map.Entry<Operation, Pending> entry : ready.entrySet()) {
+            schedule(entry.getKey(), entry.getValue(), 0);
+        }
+    }
+
+    /**
+     * Stops listening for connectivity and drops all queued operations, reporting each to the
+     * {@link OnDroppedListener}.
+     */
+    public void shutdown() {
+        mConnectivity.setOnConnectedListener(null);
+        mScheduler.shutdownNow();
+        Map<Operation, Pending> dropped;
+        synchronized (this) {
+            dropped = new EnumMap<>(mPending);
+            mPending.clear();
+        }
+
+        for (Operation operation : dropped.keySet()) {
+            mOnDroppedListener.onDropped(
+                    operation, new CancellationException("Auth operation queue shut down"));
+        }
+    }
+
+    private void schedule(Operation operation, Pending pending, long delayMs) {
+        try {
+            mScheduler.schedule(
+                    () -> runAttempt(operation, pending),
+                    delayMs,
+                    TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException ex) {
+            Log.w(TAG, "Queue shut down, dropping " + operation);
+        }
+    }
+
+    private void runAttempt(Operation operation, Pending pending) {
+        boolean finalAttempt;
+        synchronized (this) {
+            if (mPending.get(operation) != pending) {
+                return;
+            }
+
+            pending.attempts++;
+            finalAttempt = pending.attempts >= MAX_ATTEMPTS;
+        }
+
+        try {
+            pending.task.run(finalAttempt,
+                    retry -> onAttemptFinished(operation, pending, retry && !finalAttempt));
+        } catch (RuntimeException ex) {
+            // the task can no longer finish, so later submissions must not be merged into it
+            Log.e(TAG, operation + " failed", ex);
+            synchronized (this) {
+                if (mPending.get(operation) != pending) {
+                    return;
+                }
+                mPending.remove(operation);
+            }
+            mOnDroppedListener.onDropped(operation, ex);
+        }
+    }
+
+    private void onAttemptFinished(Operation operation, Pending pending, boolean retry) {
+        long delayMs;
+        synchronized (this) {
+            if (mPending.get(operation) != pending) {
+                return;
+            }
+
+            if (!retry) {
+                mPending.remove(operation);
+                return;
+            }
+
+            if (!mConnectivity.isConnected()) {
+                // flushed again once the connectivity signal fires
+                Log.i(TAG, operation + " failed while offline, waiting for connectivity");
+                pending.running = false;
+                return;
+            }
+
+            delayMs = getBackoffMs(pending.attempts);
+        }
+
+        Log.i(TAG, "Retrying " + operation + " in " + delayMs + "ms");
+        schedule(operation, pending, delayMs);
+    }
+
+    /**
+     * Exponential backoff with equal jitter: half of the delay is fixed, the other half random,
+     * so that clients recovering at the same moment do not retry in lockstep.
+     */
+    private long getBackoffMs(int attempts) {
+        long cap = Math.min(MAX_BACKOFF_MS, mBaseBackoffMs << Math.min(attempts - 1, 16));
+        long half = cap / 2;
+        return half + (long) (mRandom.nextDouble() * half);
+    }
+
+    public enum Operation {
+        DISCOVERY,
+        REFRESH,
+        USERINFO
+    }
+
+    /**
+     * A single attempt at a queued operation.
+     */
+    public interface Task {
+
+        /**
+         * Runs the operation once and reports the outcome to the callback. A task that fails for
+         * a transient reason, such as a network error, should ask for a retry instead of
+         * notifying its listeners, unless this is the final attempt.
+         */
+        void run(boolean finalAttempt, @NonNull Callback callback);
+    }
+
+    public interface Callback {
+        void onFinished(boolean retry);
+    }
+
+    public interface OnDroppedListener {
+        /**
+         * Called when an operation is dropped without its task finishing, with the exception
+         * that caused it.
+         */
+        void onDropped(@NonNull Operation operation, @NonNull Exception reason);
+    }
+
+    private static final class Pending {
+        final Task task;
+        int attempts;
+        // true while an attempt is scheduled, waiting on a backoff or in progress
+        boolean running;
+
+        Pending(Task task) {
+            this.task = task;
+        }
+    }
+}
@@ -16,10 +16,12 @@ package com.plusauth.starter;
 
 import android.content.Context;
 import android.content.SharedPreferences;
+import android.os.Looper;
 import android.util.Log;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
 
 import net.openid.appauth.AuthState;
 import net.openid.appauth.AuthorizationException;
@@ -48,24 +50,51 @@ public class AuthStateManager {
     private static final String STORE_NAME = "AuthState";
     private static final String KEY_STATE = "state";
 
+    private static volatile boolean sStrictMainThreadIo = BuildConfig.STRICT_AUTH_STATE_IO;
+
     private final SharedPreferences mPrefs;
     private final ReentrantLock mPrefsLock;
     private final AtomicReference<AuthState> mCurrentAuthState;
+    private final AtomicReference<GrantedScopes> mGrantedScopes;
 
     public static AuthStateManager getInstance(@NonNull Context context) {
-        AuthStateManager manager = INSTANCE_REF.get().get();
-        if (manager == null) {
+        while (true) {
+            WeakReference<AuthStateManager> ref = INSTANCE_REF.get();
+            AuthStateManager manager = ref.get();
+            if (manager != null) {
+                return manager;
+            }
+
+            // only one of several racing callers gets to publish its instance
             manager = new AuthStateManager(context.getApplicationContext());
-            INSTANCE_REF.set(new WeakReference<>(manager));
+            if (INSTANCE_REF.compareAndSet(ref, new WeakReference<>(manager))) {
+                return manager;
+            }
         }
+    }
+
+    /**
+     * Forgets the current instance, so that the next {@link #getInstance} creates a new one.
+     */
+    @VisibleForTesting
+    static void clearInstance() {
+        INSTANCE_REF.set(new WeakReference<>(null));
+    }
 
-        return manager;
+    /**
+     * Makes every read or write of the stored state on the main thread throw an
+     * {@link IllegalStateException}. Intended for tests and for auditing callers; defaults to the
+     * {@code STRICT_AUTH_STATE_IO} build config field.
+     */
+    public static void setStrictMainThreadIo(boolean strict) {
+        sStrictMainThreadIo = strict;
     }
 
     private AuthStateManager(Context context) {
         mPrefs = context.getSharedPreferences(STORE_NAME, Context.MODE_PRIVATE);
         mPrefsLock = new ReentrantLock();
         mCurrentAuthState = new AtomicReference<>();
+        mGrantedScopes = new AtomicReference<>();
     }
 
     @NonNull
@@ -82,46 +111,144 @@ public class AuthStateManager {
         }
     }
 
+    /**
+     * Returns the scopes granted to the current state. These are parsed once for each new state,
+     * i.e. once per token response, so that checks against them stay cheap.
+     */
+    @NonNull
+    public ScopeSet getGrantedScopes() {
+        AuthState current = getCurrent();
+        GrantedScopes granted = mGrantedScopes.get();
+        if (granted != null && granted.state == current) {
+            return granted.scopes;
+        }
+
+        granted = new GrantedScopes(current,
+                ScopeRegistry.getInstance().parse(current.getScope()));
+        mGrantedScopes.set(granted);
+        return granted.scopes;
+    }
+
     @NonNull
     public AuthState replace(@NonNull AuthState state) {
-        writeState(state);
-        mCurrentAuthState.set(state);
-        return state;
+        // the write and the cache update happen under one lock, so that concurrent replacements
+        // leave the same state in memory and on disk
+        mPrefsLock.lock();
+        try {
+            writeState(state);
+            mCurrentAuthState.set(state);
+            return state;
+        } finally {
+            mPrefsLock.unlock();
+        }
     }
 
+    /*
+     * The update methods below never mutate the instance returned by getCurrent(), since other
+     * threads may be reading it. Each update is applied to a copy under the prefs lock, which
+     * also keeps concurrent updates from overwriting each other.
+     */
+
     @NonNull
     public AuthState updateAfterAuthorization(
             @Nullable AuthorizationResponse response,
             @Nullable AuthorizationException ex) {
-        AuthState current = getCurrent();
-        current.update(response, ex);
-        return replace(current);
+        mPrefsLock.lock();
+        try {
+            AuthState updated = copyOf(getCurrent());
+            updated.update(response, ex);
+            return replace(updated);
+        } finally {
+            mPrefsLock.unlock();
+        }
     }
 
     @NonNull
     public AuthState updateAfterTokenResponse(
             @Nullable TokenResponse response,
             @Nullable AuthorizationException ex) {
-        AuthState current = getCurrent();
-        current.update(response, ex);
-        return replace(current);
+        mPrefsLock.lock();
+        try {
+            AuthState updated = copyOf(getCurrent());
+            updated.update(response, ex);
+            return replace(updated);
+        } finally {
+            mPrefsLock.unlock();
+        }
     }
 
     @NonNull
     public AuthState updateAfterRegistration(
             RegistrationResponse response,
             AuthorizationException ex) {
-        AuthState current = getCurrent();
         if (ex != null) {
-            return current;
+            return getCurrent();
+        }
+
+        mPrefsLock.lock();
+        try {
+            AuthState updated = copyOf(getCurrent());
+            updated.update(response);
+            return replace(updated);
+        } finally {
+            mPrefsLock.unlock();
+        }
+    }
+
+    /**
+     * Stores a refresh token rotated by a grant whose access token is not the primary one, such
+     * as a token for another audience. The primary access token, id token and scope are kept.
+     */
+    @NonNull
+    public AuthState updateRefreshToken(@NonNull String refreshToken) {
+        mPrefsLock.lock();
+        try {
+            AuthState current = getCurrent();
+            TokenResponse last = current.getLastTokenResponse();
+            if (last == null) {
+                Log.w(TAG, "No token response to attach rotated refresh token to - discarding");
+                return current;
+            }
+
+            TokenResponse rotated = new TokenResponse.Builder(last.request)
+                    .setTokenType(last.tokenType)
+                    .setAccessToken(last.accessToken)
+                    .setAccessTokenExpirationTime(last.accessTokenExpirationTime)
+                    .setIdToken(last.idToken)
+                    .setScope(last.scope)
+                    .setAdditionalParameters(last.additionalParameters)
+                    .setRefreshToken(refreshToken)
+                    .build();
+            AuthState updated = copyOf(current);
+            updated.update(rotated, null);
+            return replace(updated);
+        } finally {
+            mPrefsLock.unlock();
         }
+    }
+
+    private static final class GrantedScopes {
+        final AuthState state;
+        final ScopeSet scopes;
 
-        current.update(response);
-        return replace(current);
+        GrantedScopes(AuthState state, ScopeSet scopes) {
+            this.state = state;
+            this.scopes = scopes;
+        }
+    }
+
+    @NonNull
+    private static AuthState copyOf(@NonNull AuthState state) {
+        try {
+            return AuthState.jsonDeserialize(state.jsonSerializeString());
+        } catch (JSONException ex) {
+            throw new IllegalStateException("Failed to copy auth state", ex);
+        }
     }
 
     @NonNull
     private AuthState readState() {
+        checkDiskAccessAllowed();
         mPrefsLock.lock();
         try {
             String currentState = mPrefs.getString(KEY_STATE, null);
@@ -141,6 +268,7 @@ public class AuthStateManager {
     }
 
     private void writeState(@Nullable AuthState state) {
+        checkDiskAccessAllowed();
         mPrefsLock.lock();
         try {
             SharedPreferences.Editor editor = mPrefs.edit();
@@ -157,4 +285,16 @@ public class AuthStateManager {
             mPrefsLock.unlock();
         }
     }
+
+    /**
+     * Fails when strict mode is enabled and the stored state is accessed on the main thread.
+     * The check does not depend on whether the prefs file has been loaded yet, so the same call
+     * fails every time rather than only on a cold start.
+     */
+    private static void checkDiskAccessAllowed() {
+        Looper mainLooper = Looper.getMainLooper();
+        if (sStrictMainThreadIo && mainLooper != null && Looper.myLooper() == mainLooper) {
+            throw new IllegalStateException("Auth state disk access on the main thread");
+        }
+    }
 }
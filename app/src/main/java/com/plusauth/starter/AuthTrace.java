@@ -0,0 +1,49 @@
+package com.plusauth.starter;
+
+import android.os.Build;
+import android.os.Trace;
+
+import androidx.annotation.NonNull;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Thin wrapper around {@link Trace} for the stages of the authorization flow, so that startup and
+ * login can be inspected in a system trace. Synchronous sections must begin and end on the same
+ * thread; network legs that complete on another thread use async sections identified by a cookie.
+ * Async sections are no-ops below API 29, where the platform does not support them.
+ */
+public final class AuthTrace {
+
+    private static final String PREFIX = "Auth:";
+    private static final AtomicInteger sNextCookie = new AtomicInteger();
+
+    private AuthTrace() {
+    }
+
+    public static void begin(@NonNull String section) {
+        Trace.beginSection(PREFIX + section);
+    }
+
+    public static void end() {
+        Trace.endSection();
+    }
+
+    /**
+     * Starts an async section and returns the cookie that must be passed to
+     * {@link #endAsync(String, int)} with the same section name.
+     */
+    public static int beginAsync(@NonNull String section) {
+        int cookie = sNextCookie.incrementAndGet();
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            Trace.beginAsyncSection(PREFIX + section, cookie);
+        }
+        return cookie;
+    }
+
+    public static void endAsync(@NonNull String section, int cookie) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            Trace.endAsyncSection(PREFIX + section, cookie);
+        }
+    }
+}
@@ -6,6 +6,10 @@ public class Config {
     public final static Uri AUTH_URI = Uri.parse("https://{YOUR-TENANT-NAME}.plusauth.com/");
     public final static String SCOPE = "openid email profile offline_access";
     public final static String CLIENT_ID = "{YOUR-CLIENT-ID}";
+    // When enabled, CLIENT_ID is ignored and the app registers itself with the tenant instead
+    public final static boolean DYNAMIC_REGISTRATION = false;
     public final static Uri REDIRECT_URI = Uri.parse("com.plusauth.starter:/oauth2redirect");
+    // Hedge discovery and userinfo requests against slow responses from the tenant
+    public final static boolean HEDGE_IDP_GETS = false;
     public final static String SIGN_OUT_REDIRECT_URI = "com.plusauth.starter:/signout";
 }
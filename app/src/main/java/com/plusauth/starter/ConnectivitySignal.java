@@ -0,0 +1,18 @@
+package com.plusauth.starter;
+
+import androidx.annotation.Nullable;
+
+/**
+ * Reports whether the device can currently reach the network, and signals when it regains
+ * connectivity. Used by {@link AuthOperationQueue} to hold operations while offline.
+ */
+public interface ConnectivitySignal {
+
+    boolean isConnected();
+
+    /**
+     * Sets the listener invoked whenever a network becomes available, replacing any previous
+     * listener. Pass null to stop listening.
+     */
+    void setOnConnectedListener(@Nullable Runnable listener);
+}
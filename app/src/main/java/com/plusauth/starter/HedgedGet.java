@@ -0,0 +1,285 @@
+package com.plusauth.starter;
+
+import android.net.Uri;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import net.openid.appauth.connectivity.ConnectionBuilder;
+import net.openid.appauth.connectivity.DefaultConnectionBuilder;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import okio.BufferedSource;
+import okio.Okio;
+
+/**
+ * Performs idempotent GET requests against the identity provider, such as discovery and userinfo.
+ * When hedging is enabled and the first attempt has not answered within the observed p95
+ * latency, a second attempt is sent; the first successful response wins and the other attempt
+ * is cancelled. Hedges draw from a budget earned per request, which keeps the extra load on the
+ * tenant to roughly a tenth of the requests. Never use this for token requests, which must not be
+ * sent twice.
+ */
+public class HedgedGet {
+
+    private static final String TAG = "HedgedGet";
+
+    private static final int LATENCY_SAMPLES = 64;
+    private static final int MIN_LATENCY_SAMPLES = 8;
+    private static final long DEFAULT_HEDGE_DELAY_MS = 1000;
+    private static final long MIN_HEDGE_DELAY_MS = 50;
+
+    private static final double HEDGE_BUDGET_PER_REQUEST = 0.1;
+    private static final double MAX_HEDGE_BUDGET = 5;
+
+    private static final HedgedGet INSTANCE =
+            new HedgedGet(Config.HEDGE_IDP_GETS, DefaultConnectionBuilder.INSTANCE);
+
+    private final boolean mHedgingEnabled;
+    private final ConnectionBuilder mConnectionBuilder;
+    private final ExecutorService mExecutor = Executors.newCachedThreadPool();
+
+    // guarded by this
+    private final long[] mLatencies = new long[LATENCY_SAMPLES];
+    private int mLatencyCount;
+    private int mNextLatency;
+    private double mHedgeBudget = 1;
+
+    private final AtomicLong mRequests = new AtomicLong();
+    private final AtomicLong mHedgesFired = new AtomicLong();
+    private final AtomicLong mHedgesWon = new AtomicLong();
+
+    public static HedgedGet getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * @param connectionBuilder opens every attempt's connection, so that hedged requests get the
+     *     same HTTPS enforcement and timeouts as the requests AppAuth sends itself.
+     */
+    HedgedGet(boolean hedgingEnabled, @NonNull ConnectionBuilder connectionBuilder) {
+        mHedgingEnabled = hedgingEnabled;
+        mConnectionBuilder = connectionBuilder;
+    }
+
+    /**
+     * Fetches the URL and returns the response body. Blocks the calling thread, so call this from
+     * a background executor.
+     *
+     * @throws IOException if no attempt succeeded; a {@link HttpStatusException} if the server
+     * answered with a non-2xx status.
+     */
+    @NonNull
+    public String get(@NonNull Uri uri, @NonNull Map<String, String> headers) throws IOException {
+        mRequests.incrementAndGet();
+        if (!mHedgingEnabled) {
+            return new Attempt(uri, headers).call();
+        }
+
+        earnHedgeBudget();
+        CompletionService<String> completion = new ExecutorCompletionService<>(mExecutor);
+        Attempt primary = new Attempt(uri, headers);
+        Attempt hedge = null;
+        Future<String> hedgeFuture = null;
+        Future<String> winner = null;
+        primary.future = completion.submit(primary);
+        try {
+            Future<String> done = completion.poll(getHedgeDelayMs(), TimeUnit.MILLISECONDS);
+            if (done == null && tryAcquireHedge()) {
+                mHedgesFired.incrementAndGet();
+                hedge = new Attempt(uri, headers);
+                hedgeFuture = completion.submit(hedge);
+                hedge.future = hedgeFuture;
+            }
+
+            int outstanding = hedge != null ? 2 : 1;
+            IOException failure = null;
+            while (outstanding > 0) {
+                if (done == null) {
+                    done = completion.take();
+                }
+                outstanding--;
+
+                try {
+                    String body = done.get();
+                    winner = done;
+                    if (done == hedgeFuture) {
+                        mHedgesWon.incrementAndGet();
+                    }
+                    return body;
+                } catch (ExecutionException ex) {
+                    failure = ex.getCause() instanceof IOException
+                            ? (IOException) ex.getCause()
+                            : new IOException(ex.getCause());
+                }
+                done = null;
+            }
+            throw failure;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while fetching " + uri);
+        } finally {
+            if (primary.future != winner) {
+                primary.cancel();
+            }
+            if (hedge != null && hedgeFuture != winner) {
+                hedge.cancel();
+            }
+        }
+    }
+
+    public long getRequestCount() {
+        return mRequests.get();
+    }
+
+    public long getHedgesFired() {
+        return mHedgesFired.get();
+    }
+
+    public long getHedgesWon() {
+        return mHedgesWon.get();
+    }
+
+    /**
+     * Logs how many requests were sent, and how often a hedge fired and won.
+     */
+    public void logMetrics() {
+        long hedgesFired = mHedgesFired.get();
+        long hedgesWon = mHedgesWon.get();
+        Log.i(TAG, String.format(Locale.US, "%d requests, %d hedges fired, %d won (%.0f%%)",
+                mRequests.get(),
+                hedgesFired,
+                hedgesWon,
+                hedgesFired == 0 ? 0.0 : 100.0 * hedgesWon / hedgesFired));
+    }
+
+    /**
+     * Returns the p95 of recent successful attempts, or a fixed delay until enough samples
+     * have been observed.
+     */
+    private synchronized long getHedgeDelayMs() {
+        if (mLatencyCount < MIN_LATENCY_SAMPLES) {
+            return DEFAULT_HEDGE_DELAY_MS;
+        }
+
+        long[] sorted = Arrays.copyOf(mLatencies, mLatencyCount);
+        Arrays.sort(sorted);
+        long p95 = sorted[(int) Math.ceil(0.95 * sorted.length) - 1];
+        return Math.max(p95, MIN_HEDGE_DELAY_MS);
+    }
+
+    private synchronized void recordLatency(long latencyMs) {
+        mLatencies[mNextLatency] = latencyMs;
+        mNextLatency = (mNextLatency + 1) % LATENCY_SAMPLES;
+        mLatencyCount = Math.min(mLatencyCount + 1, LATENCY_SAMPLES);
+    }
+
+    private synchronized void earnHedgeBudget() {
+        mHedgeBudget = Math.min(mHedgeBudget + HEDGE_BUDGET_PER_REQUEST, MAX_HEDGE_BUDGET);
+    }
+
+    private synchronized boolean tryAcquireHedge() {
+        if (mHedgeBudget < 1) {
+            return false;
+        }
+
+        mHedgeBudget -= 1;
+        return true;
+    }
+
+    /**
+     * Thrown when the server answered, but not with a success status. Unlike other I/O failures
+     * this is not a connectivity problem, so retrying is unlikely to help.
+     */
+    public static class HttpStatusException extends IOException {
+        public final int responseCode;
+
+        HttpStatusException(int responseCode, Uri uri) {
+            super("Unexpected response " + responseCode + " from " + uri);
+            this.responseCode = responseCode;
+        }
+    }
+
+    private final class Attempt implements Callable<String> {
+        private final Uri mUri;
+        private final Map<String, String> mHeaders;
+        private final AtomicReference<HttpURLConnection> mConnection = new AtomicReference<>();
+        private volatile boolean mCancelled;
+        Future<String> future;
+
+        Attempt(Uri uri, Map<String, String> headers) {
+            mUri = uri;
+            mHeaders = headers;
+        }
+
+        @Override
+        public String call() throws IOException {
+            long start = System.nanoTime();
+            HttpURLConnection conn;
+            try {
+                conn = mConnectionBuilder.openConnection(mUri);
+            } catch (IllegalArgumentException ex) {
+                // the connection builder rejects anything but https
+                throw new IOException("Refusing to connect to " + mUri, ex);
+            }
+            mConnection.set(conn);
+            if (mCancelled) {
+                conn.disconnect();
+                throw new InterruptedIOException("Request cancelled");
+            }
+
+            try {
+                for (Map.Entry<String, String> header : mHeaders.entrySet()) {
+                    conn.setRequestProperty(header.getKey(), header.getValue());
+                }
+
+                int responseCode = conn.getResponseCode();
+                if (responseCode < 200 || responseCode >= 300) {
+                    throw new HttpStatusException(responseCode, mUri);
+                }
+
+                String body;
+                try (BufferedSource source = Okio.buffer(Okio.source(conn.getInputStream()))) {
+                    body = source.readString(StandardCharsets.UTF_8);
+                }
+                recordLatency(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+                return body;
+            } finally {
+                conn.disconnect();
+            }
+        }
+
+        /**
+         * Aborts the attempt. Interrupting does not unblock socket reads, so the connection is
+         * disconnected as well.
+         */
+        void cancel() {
+            mCancelled = true;
+            if (future != null) {
+                future.cancel(true);
+            }
+
+            HttpURLConnection conn = mConnection.get();
+            if (conn != null) {
+                conn.disconnect();
+            }
+        }
+    }
+}
@@ -18,20 +18,24 @@ public final class LoginActivity extends AppCompatActivity {
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
+        AuthTrace.begin("LoginActivity.onCreate");
+        try {
+            authManager = new AuthManager(this, this::onAuthReady);
 
-        authManager = new AuthManager(this, this::onAuthReady);
+            setContentView(R.layout.activity_login);
 
-        setContentView(R.layout.activity_login);
+            findViewById(R.id.retry).setOnClickListener((View view) ->
+                authManager.retry(this));
+            findViewById(R.id.start_auth).setOnClickListener((View view) -> startAuth());
 
-        findViewById(R.id.retry).setOnClickListener((View view) ->
-            authManager.retry(this));
-        findViewById(R.id.start_auth).setOnClickListener((View view) -> startAuth());
+            if (getIntent().getBooleanExtra(EXTRA_FAILED, false)) {
+                displayAuthCancelled();
+            }
 
-        if (getIntent().getBooleanExtra(EXTRA_FAILED, false)) {
-            displayAuthCancelled();
+            showLoading("Initializing");
+        } finally {
+            AuthTrace.end();
         }
-
-        showLoading("Initializing");
     }
 
     @Override
@@ -0,0 +1,76 @@
+package com.plusauth.starter;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.net.NetworkCapabilities;
+import android.net.NetworkInfo;
+import android.net.NetworkRequest;
+import android.os.Build;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * A {@link ConnectivitySignal} backed by the platform {@link ConnectivityManager}.
+ */
+public class NetworkConnectivitySignal implements ConnectivitySignal {
+
+    private final ConnectivityManager mConnectivityManager;
+    private ConnectivityManager.NetworkCallback mNetworkCallback;
+
+    public NetworkConnectivitySignal(@NonNull Context context) {
+        mConnectivityManager = (ConnectivityManager) context.getApplicationContext()
+                .getSystemService(Context.CONNECTIVITY_SERVICE);
+    }
+
+    @Override
+    public boolean isConnected() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.M) {
+            return isConnectedLegacy();
+        }
+
+        Network network = mConnectivityManager.getActiveNetwork();
+        if (network == null) {
+            return false;
+        }
+
+        NetworkCapabilities capabilities = mConnectivityManager.getNetworkCapabilities(network);
+        return capabilities != null
+                && capabilities.hasCapability(NetworkCapabilities.NET_CAPABILITY_INTERNET);
+    }
+
+    /**
+     * getActiveNetwork() is only available from API 23, so older devices still need the
+     * deprecated NetworkInfo.
+     */
+    @SuppressWarnings("deprecation")
+    private boolean isConnectedLegacy() {
+        NetworkInfo networkInfo = mConnectivityManager.getActiveNetworkInfo();
+        return networkInfo != null && networkInfo.isConnected();
+    }
+
+    @Override
+    public synchronized void setOnConnectedListener(@Nullable Runnable listener) {
+        if (mNetworkCallback != null) {
+            mConnectivityManager.unregisterNetworkCallback(mNetworkCallback);
+            mNetworkCallback = null;
+        }
+
+        if (listener == null) {
+            return;
+        }
+
+        mNetworkCallback = new ConnectivityManager.NetworkCallback() {
+            @Override
+            public void onAvailable(@NonNull Network network) {
+                listener.run();
+            }
+        };
+        mConnectivityManager.registerNetworkCallback(
+                new NetworkRequest.Builder()
+                        .addCapability(NetworkCapabilities.NET_CAPABILITY_INTERNET)
+                        .build(),
+                mNetworkCallback);
+    }
+}
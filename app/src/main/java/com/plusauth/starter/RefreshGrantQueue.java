@@ -0,0 +1,82 @@
+package com.plusauth.starter;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Runs refresh token grants one at a time. Identity providers that rotate refresh tokens spend
+ * the old token on first use, so two grants sent with the same refresh token would make one of
+ * them fail, and with reuse detection revoke the whole token family. Each grant must read the
+ * refresh token from the current state when it starts, so that it picks up a rotated token
+ * stored by the grant before it.
+ */
+final class RefreshGrantQueue {
+
+    private static final String TAG = "RefreshGrantQueue";
+
+    private final ArrayDeque<Grant> mWaiting = new ArrayDeque<>();
+    private boolean mRunning;
+
+    /**
+     * Starts the grant once every grant enqueued before it has completed.
+     */
+    void enqueue(@NonNull Grant grant) {
+        synchronized (this) {
+            if (mRunning) {
+                mWaiting.add(grant);
+                return;
+            }
+            mRunning = true;
+        }
+
+        start(grant);
+    }
+
+    /**
+     * Starts the grant. Grants report their own failures to their listeners; a failure that
+     * escapes one anyway is logged rather than rethrown, since the caller may be the callback of
+     * the previous grant, which has nothing to do with it.
+     */
+    private void start(Grant grant) {
+        // a grant that completes and then throws must not start the next grant twice
+        AtomicBoolean completed = new AtomicBoolean();
+        Runnable onComplete = () -> {
+            if (completed.compareAndSet(false, true)) {
+                onGrantCompleted();
+            }
+        };
+
+        try {
+            grant.start(onComplete);
+        } catch (RuntimeException ex) {
+            Log.e(TAG, "Refresh token grant failed", ex);
+            onComplete.run();
+        }
+    }
+
+    private void onGrantCompleted() {
+        Grant next;
+        synchronized (this) {
+            next = mWaiting.poll();
+            if (next == null) {
+                mRunning = false;
+                return;
+            }
+        }
+
+        start(next);
+    }
+
+    interface Grant {
+        /**
+         * Sends the grant. The grant must call onComplete once its response has been handled,
+         * including storing any rotated refresh token and notifying its listeners. A grant that
+         * cannot be sent must report the failure to its listeners and call onComplete.
+         */
+        void start(@NonNull Runnable onComplete);
+    }
+}
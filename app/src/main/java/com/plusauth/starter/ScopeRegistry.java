@@ -0,0 +1,120 @@
+package com.plusauth.starter;
+
+import android.text.TextUtils;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Interns scope names to bit positions, so that sets of scopes can be represented as a
+ * {@link ScopeSet} bitmask and compared in constant time. The scopes in {@link Config#SCOPE} are
+ * registered up front; scopes first seen in a token response are registered as they arrive, up
+ * to {@link #MAX_SCOPES}.
+ */
+public final class ScopeRegistry {
+
+    public static final int MAX_SCOPES = Long.SIZE;
+
+    private static final String TAG = "ScopeRegistry";
+    private static final ScopeRegistry INSTANCE = new ScopeRegistry(Config.SCOPE);
+
+    private final ConcurrentHashMap<String, Integer> mIndices = new ConcurrentHashMap<>();
+    private int mSize;
+
+    public static ScopeRegistry getInstance() {
+        return INSTANCE;
+    }
+
+    @VisibleForTesting
+    ScopeRegistry(@NonNull String knownScopes) {
+        parse(knownScopes);
+    }
+
+    /**
+     * Returns the bit position of the scope, registering it if it is new, or -1 if the registry
+     * is full.
+     */
+    public int intern(@NonNull String scope) {
+        Integer index = mIndices.get(scope);
+        if (index != null) {
+            return index;
+        }
+
+        synchronized (this) {
+            index = mIndices.get(scope);
+            if (index != null) {
+                return index;
+            }
+
+            if (mSize == MAX_SCOPES) {
+                Log.w(TAG, "Scope registry full, ignoring scope " + scope);
+                return -1;
+            }
+
+            mIndices.put(scope, mSize);
+            return mSize++;
+        }
+    }
+
+    /**
+     * Returns the bit position of the scope, or -1 if it has not been registered.
+     */
+    public int indexOf(@NonNull String scope) {
+        Integer index = mIndices.get(scope);
+        return index != null ? index : -1;
+    }
+
+    /**
+     * Returns the set of the given scopes, for checking against granted scopes. Nothing is
+     * registered: a scope that has never been granted cannot be held, so a set with an
+     * unregistered scope is never contained in another set. Look the set up once and keep it,
+     * rather than building it for every check.
+     */
+    @NonNull
+    public ScopeSet of(@NonNull String... scopes) {
+        long bits = 0;
+        boolean unknown = false;
+        for (String scope : scopes) {
+            int index = indexOf(scope);
+            if (index < 0) {
+                unknown = true;
+            } else {
+                bits |= 1L << index;
+            }
+        }
+        return new ScopeSet(this, bits, unknown);
+    }
+
+    /**
+     * Returns the set of scopes in a space-delimited scope string, as used in requests and token
+     * responses.
+     */
+    @NonNull
+    public ScopeSet parse(@Nullable String scopeString) {
+        if (TextUtils.isEmpty(scopeString)) {
+            return new ScopeSet(this, 0, false);
+        }
+
+        long bits = 0;
+        boolean unknown = false;
+        for (String scope : scopeString.split(" ")) {
+            if (scope.isEmpty()) {
+                continue;
+            }
+
+            int index = intern(scope);
+            if (index < 0) {
+                // the registry is full; the set can still be checked, but never satisfies a
+                // check against it
+                unknown = true;
+            } else {
+                bits |= 1L << index;
+            }
+        }
+        return new ScopeSet(this, bits, unknown);
+    }
+}
@@ -0,0 +1,60 @@
+package com.plusauth.starter;
+
+import androidx.annotation.NonNull;
+
+/**
+ * An immutable set of scopes from a {@link ScopeRegistry}, stored as a bitmask. All checks are
+ * constant time; checks against another set are a single mask comparison. A set may also hold
+ * scopes the registry has no bit for; such a set is never contained in another set, so that a
+ * permission check against it fails closed.
+ */
+public final class ScopeSet {
+
+    private final ScopeRegistry mRegistry;
+    private final long mBits;
+    private final boolean mHasUnknownScopes;
+
+    ScopeSet(@NonNull ScopeRegistry registry, long bits, boolean hasUnknownScopes) {
+        mRegistry = registry;
+        mBits = bits;
+        mHasUnknownScopes = hasUnknownScopes;
+    }
+
+    public boolean contains(@NonNull String scope) {
+        int index = mRegistry.indexOf(scope);
+        return index >= 0 && (mBits & (1L << index)) != 0;
+    }
+
+    public boolean containsAll(@NonNull ScopeSet scopes) {
+        return !scopes.mHasUnknownScopes && (mBits & scopes.mBits) == scopes.mBits;
+    }
+
+    public boolean containsAny(@NonNull ScopeSet scopes) {
+        return (mBits & scopes.mBits) != 0;
+    }
+
+    public boolean isEmpty() {
+        return mBits == 0 && !mHasUnknownScopes;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof ScopeSet)) {
+            return false;
+        }
+        ScopeSet other = (ScopeSet) o;
+        // unknown scopes are not recorded, so a set holding them is only equal to itself
+        return mRegistry == other.mRegistry
+                && mBits == other.mBits
+                && !mHasUnknownScopes
+                && !other.mHasUnknownScopes;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.valueOf(mBits).hashCode();
+    }
+}
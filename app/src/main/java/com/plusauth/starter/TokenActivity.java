@@ -102,69 +102,74 @@ public class TokenActivity extends AppCompatActivity {
     }
 
     private void displayAuthorized() {
-        findViewById(R.id.authorized).setVisibility(View.VISIBLE);
-        findViewById(R.id.not_authorized).setVisibility(View.GONE);
-        findViewById(R.id.loading_container).setVisibility(View.GONE);
-
-        AuthState state = authManager.getState();
-
-        TextView refreshTokenInfoView = findViewById(R.id.refresh_token_info);
-        refreshTokenInfoView.setText((state.getRefreshToken() == null)
-                ? R.string.no_refresh_token_returned
-                : R.string.refresh_token_returned);
-
-        TextView idTokenInfoView = findViewById(R.id.id_token_info);
-        idTokenInfoView.setText((state.getIdToken()) == null
-                ? R.string.no_id_token_returned
-                : R.string.id_token_returned);
-
-        TextView accessTokenInfoView = findViewById(R.id.access_token_info);
-        if (state.getAccessToken() == null) {
-            accessTokenInfoView.setText(R.string.no_access_token_returned);
-        } else {
-            Long expiresAt = state.getAccessTokenExpirationTime();
-            if (expiresAt == null) {
-                accessTokenInfoView.setText(R.string.no_access_token_expiry);
-            } else if (expiresAt < System.currentTimeMillis()) {
-                accessTokenInfoView.setText(R.string.access_token_expired);
+        AuthTrace.begin("TokenActivity.displayAuthorized");
+        try {
+            findViewById(R.id.authorized).setVisibility(View.VISIBLE);
+            findViewById(R.id.not_authorized).setVisibility(View.GONE);
+            findViewById(R.id.loading_container).setVisibility(View.GONE);
+
+            AuthState state = authManager.getState();
+
+            TextView refreshTokenInfoView = findViewById(R.id.refresh_token_info);
+            refreshTokenInfoView.setText((state.getRefreshToken() == null)
+                    ? R.string.no_refresh_token_returned
+                    : R.string.refresh_token_returned);
+
+            TextView idTokenInfoView = findViewById(R.id.id_token_info);
+            idTokenInfoView.setText((state.getIdToken()) == null
+                    ? R.string.no_id_token_returned
+                    : R.string.id_token_returned);
+
+            TextView accessTokenInfoView = findViewById(R.id.access_token_info);
+            if (state.getAccessToken() == null) {
+                accessTokenInfoView.setText(R.string.no_access_token_returned);
             } else {
-                String template = getResources().getString(R.string.access_token_expires_at);
-                String formattedExpiresAt = DateFormat.format("yyyy-MM-dd hh:mm:ss a", new Date()).toString();
-                accessTokenInfoView.setText(String.format(template, formattedExpiresAt));
+                Long expiresAt = state.getAccessTokenExpirationTime();
+                if (expiresAt == null) {
+                    accessTokenInfoView.setText(R.string.no_access_token_expiry);
+                } else if (expiresAt < System.currentTimeMillis()) {
+                    accessTokenInfoView.setText(R.string.access_token_expired);
+                } else {
+                    String template = getResources().getString(R.string.access_token_expires_at);
+                    String formattedExpiresAt = DateFormat.format("yyyy-MM-dd hh:mm:ss a", new Date()).toString();
+                    accessTokenInfoView.setText(String.format(template, formattedExpiresAt));
+                }
             }
-        }
 
-        Button refreshTokenButton = findViewById(R.id.refresh_token);
-        refreshTokenButton.setVisibility(state.getRefreshToken() != null
-                ? View.VISIBLE
-                : View.GONE);
-        refreshTokenButton.setOnClickListener(this::onRefreshTokenClicked);
+            Button refreshTokenButton = findViewById(R.id.refresh_token);
+            refreshTokenButton.setVisibility(state.getRefreshToken() != null
+                    ? View.VISIBLE
+                    : View.GONE);
+            refreshTokenButton.setOnClickListener(this::onRefreshTokenClicked);
 
-        Button viewProfileButton = findViewById(R.id.view_profile);
+            Button viewProfileButton = findViewById(R.id.view_profile);
 
-        viewProfileButton.setVisibility(View.VISIBLE);
-        viewProfileButton.setOnClickListener(this::onViewProfileClicked);
+            viewProfileButton.setVisibility(View.VISIBLE);
+            viewProfileButton.setOnClickListener(this::onViewProfileClicked);
 
 
-        findViewById(R.id.sign_out).setOnClickListener((View view) -> signOut());
+            findViewById(R.id.sign_out).setOnClickListener((View view) -> signOut());
 
-        View userInfoCard = findViewById(R.id.userinfo_card);
-        JSONObject userInfo = mUserInfoJson.get();
-        if (userInfo == null) {
-            userInfoCard.setVisibility(View.INVISIBLE);
-        } else {
-            try {
-                String email = "???";
-                if (userInfo.has("email")) {
-                    email = userInfo.getString("email");
+            View userInfoCard = findViewById(R.id.userinfo_card);
+            JSONObject userInfo = mUserInfoJson.get();
+            if (userInfo == null) {
+                userInfoCard.setVisibility(View.INVISIBLE);
+            } else {
+                try {
+                    String email = "???";
+                    if (userInfo.has("email")) {
+                        email = userInfo.getString("email");
+                    }
+                    ((TextView) findViewById(R.id.userinfo_email)).setText(email);
+
+                    ((TextView) findViewById(R.id.userinfo_json)).setText(userInfo.toString(2));
+                    userInfoCard.setVisibility(View.VISIBLE);
+                } catch (JSONException ex) {
+                    Log.e(TAG, "Failed to read userinfo JSON", ex);
                 }
-                ((TextView) findViewById(R.id.userinfo_email)).setText(email);
-
-                ((TextView) findViewById(R.id.userinfo_json)).setText(userInfo.toString(2));
-                userInfoCard.setVisibility(View.VISIBLE);
-            } catch (JSONException ex) {
-                Log.e(TAG, "Failed to read userinfo JSON", ex);
             }
+        } finally {
+            AuthTrace.end();
         }
     }
 
@@ -0,0 +1,85 @@
+package com.plusauth.starter;
+
+import android.net.Uri;
+
+import net.openid.appauth.AuthorizationException;
+import net.openid.appauth.AuthorizationServiceConfiguration;
+import net.openid.appauth.GrantTypeValues;
+import net.openid.appauth.TokenRequest;
+import net.openid.appauth.TokenResponse;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+@RunWith(RobolectricTestRunner.class)
+public class AccessTokenCacheTest {
+
+    private static final AccessTokenCache.Key KEY =
+            new AccessTokenCache.Key("https://api.example.com", Collections.singleton("read"));
+
+    private final AccessTokenCache mCache = new AccessTokenCache();
+    private final List<String> mTokens = new ArrayList<>();
+
+    @Test
+    public void concurrentRequestsShareOneInFlightRequest() {
+        AccessTokenCache.InFlight inFlight = mCache.enqueue(KEY, this::record);
+        assertNotNull(inFlight);
+        assertNull("second caller started a request", mCache.enqueue(KEY, this::record));
+
+        mCache.complete(inFlight, tokenResponse("token"), null);
+
+        assertEquals(Collections.nCopies(2, "token"), mTokens);
+        assertEquals("token", mCache.get(KEY));
+    }
+
+    @Test
+    public void clearDetachesRequestsInFlight() {
+        AccessTokenCache.InFlight previousUser = mCache.enqueue(KEY, this::record);
+        mCache.clear();
+
+        // a request after sign-out must not join the previous user's request
+        AccessTokenCache.InFlight nextUser = mCache.enqueue(KEY, this::record);
+        assertNotNull(nextUser);
+
+        mCache.complete(previousUser, tokenResponse("previous"), null);
+        assertEquals(Collections.singletonList("previous"), mTokens);
+        assertNull("detached token was cached", mCache.get(KEY));
+        // completing the detached request leaves the new one in flight
+        assertNull("started a new request", mCache.enqueue(KEY, this::record));
+
+        mCache.complete(nextUser, tokenResponse("next"), null);
+        assertEquals(Arrays.asList("previous", "next", "next"), mTokens);
+        assertEquals("next", mCache.get(KEY));
+    }
+
+    private synchronized void record(String accessToken, AuthorizationException ex) {
+        mTokens.add(accessToken);
+    }
+
+    private static TokenResponse tokenResponse(String accessToken) {
+        AuthorizationServiceConfiguration config = new AuthorizationServiceConfiguration(
+                Uri.parse("https://example.plusauth.com/oauth2/authorize"),
+                Uri.parse("https://example.plusauth.com/oauth2/token"));
+        TokenRequest request = new TokenRequest.Builder(config, "client")
+                .setGrantType(GrantTypeValues.REFRESH_TOKEN)
+                .setRefreshToken("refresh")
+                .build();
+        return new TokenResponse.Builder(request)
+                .setTokenType(TokenResponse.TOKEN_TYPE_BEARER)
+                .setAccessToken(accessToken)
+                .setAccessTokenExpirationTime(
+                        System.currentTimeMillis() + TimeUnit.HOURS.toMillis(1))
+                .build();
+    }
+}
@@ -0,0 +1,406 @@
+package com.plusauth.starter;
+
+import android.content.Context;
+import android.net.Uri;
+import android.os.Looper;
+
+import androidx.annotation.NonNull;
+
+import net.openid.appauth.AuthState;
+import net.openid.appauth.AuthorizationException;
+import net.openid.appauth.AuthorizationRequest;
+import net.openid.appauth.AuthorizationResponse;
+import net.openid.appauth.AuthorizationServiceConfiguration;
+import net.openid.appauth.ResponseTypeValues;
+import net.openid.appauth.TokenResponse;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.LooperMode;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.HttpURLConnection;
+import java.net.URLDecoder;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+import static org.robolectric.Shadows.shadowOf;
+
+/**
+ * Hammers the token paths of {@link AuthManager} from many threads against a fake token endpoint
+ * that rotates refresh tokens and rejects reuse of a spent one. Checks that concurrent requests
+ * for the same token share one grant, that refresh token grants never overlap, and that every
+ * caller is called back, including when a grant fails before it is sent. AppAuth delivers token
+ * responses on the main looper, which the test thread runs while waiting.
+ */
+@RunWith(RobolectricTestRunner.class)
+@LooperMode(LooperMode.Mode.PAUSED)
+public class AuthManagerStressTest {
+
+    private static final int THREADS = 8;
+    private static final int OPS_PER_THREAD = 25;
+    private static final long TIMEOUT_MS = TimeUnit.MINUTES.toMillis(1);
+
+    private static final AuthorizationServiceConfiguration CONFIG =
+            new AuthorizationServiceConfiguration(
+                    Uri.parse("https://example.plusauth.com/oauth2/authorize"),
+                    Uri.parse("https://example.plusauth.com/oauth2/token"));
+
+    private Context mContext;
+    private FakeTokenEndpoint mEndpoint;
+    private FakeConnectionBuilder mConnections;
+    private AuthManager mManager;
+
+    @Before
+    public void setUp() {
+        mContext = RuntimeEnvironment.application;
+        mEndpoint = new FakeTokenEndpoint();
+        mConnections = new FakeConnectionBuilder(mEndpoint);
+
+        AuthStateManager.clearInstance();
+        AuthStateManager.getInstance(mContext).replace(signedInState(mEndpoint.currentToken()));
+        mManager = newManager();
+    }
+
+    @After
+    public void tearDown() {
+        mManager.destroy();
+        AuthStateManager.clearInstance();
+    }
+
+    @Test
+    public void concurrentRequestsForOneTokenShareOneGrant() throws Exception {
+        mEndpoint.hold();
+        List<String> tokens = new CopyOnWriteArrayList<>();
+        List<AuthorizationException> errors = new CopyOnWriteArrayList<>();
+        CountDownLatch done = new CountDownLatch(THREADS);
+
+        runConcurrently(thread -> mManager.getAccessToken(
+                "https://api.example.com/shared",
+                Collections.singleton("read"),
+                (accessToken, ex) -> {
+                    tokens.add(String.valueOf(accessToken));
+                    if (ex != null) {
+                        errors.add(ex);
+                    }
+                    done.countDown();
+                }));
+        mEndpoint.release();
+        awaitOnMainLooper(done);
+
+        assertEquals("errors", Collections.emptyList(), errors);
+        assertEquals("grants sent", 1, mEndpoint.getGrantCount());
+        assertEquals(Collections.nCopies(THREADS, tokens.get(0)), tokens);
+    }
+
+    @Test
+    public void mixedGrantsNeverReuseARefreshToken() throws Exception {
+        List<AuthorizationException> errors = new CopyOnWriteArrayList<>();
+        AtomicInteger callbacks = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(THREADS * OPS_PER_THREAD);
+
+        long start = System.nanoTime();
+        runConcurrently(thread -> {
+            for (int i = 0; i < OPS_PER_THREAD; i++) {
+                if (i % 2 == 0) {
+                    mManager.refreshAccessToken(
+                            (response, ex) -> record(ex, errors, callbacks, done));
+                } else {
+                    // short-lived tokens are never cached, so each call needs a grant
+                    mManager.getAccessToken(
+                            "https://api.example.com/" + (thread + i) % 3,
+                            Collections.singleton("read"),
+                            (accessToken, ex) -> record(ex, errors, callbacks, done));
+                }
+            }
+        });
+        awaitOnMainLooper(done);
+        report("refreshAccessToken/getAccessToken", THREADS * OPS_PER_THREAD,
+                System.nanoTime() - start, mEndpoint.getGrantCount());
+
+        shadowOf(Looper.getMainLooper()).idle();
+        assertEquals("callbacks", THREADS * OPS_PER_THREAD, callbacks.get());
+        assertEquals("errors", Collections.emptyList(), errors);
+        assertEquals("spent refresh tokens reused", 0, mEndpoint.getReuseCount());
+        assertEquals("rotated refresh token lost", mEndpoint.currentToken(),
+                AuthStateManager.getInstance(mContext).getCurrent().getRefreshToken());
+    }
+
+    @Test
+    public void grantsThatFailToStartStillCallBack() throws Exception {
+        // without a refresh token, both kinds of grant fail before anything is sent
+        AuthStateManager.getInstance(mContext).replace(new AuthState(CONFIG));
+        AuthorizationException[] failures = new AuthorizationException[2];
+        CountDownLatch failed = new CountDownLatch(2);
+        mManager.getAccessToken("https://api.example.com/failing", Collections.emptySet(),
+                (accessToken, ex) -> {
+                    failures[0] = ex;
+                    failed.countDown();
+                });
+        mManager.refreshAccessToken((response, ex) -> {
+            failures[1] = ex;
+            failed.countDown();
+        });
+        awaitOnMainLooper(failed);
+        assertNotNull(failures[0]);
+        assertNotNull(failures[1]);
+
+        // neither the token cache nor the queues are left waiting on the failed grants
+        AuthStateManager.getInstance(mContext).replace(signedInState(mEndpoint.currentToken()));
+        String[] accessToken = new String[1];
+        AuthorizationException[] errors = new AuthorizationException[2];
+        CountDownLatch succeeded = new CountDownLatch(2);
+        mManager.getAccessToken("https://api.example.com/failing", Collections.emptySet(),
+                (token, ex) -> {
+                    accessToken[0] = token;
+                    errors[0] = ex;
+                    succeeded.countDown();
+                });
+        mManager.refreshAccessToken((response, ex) -> {
+            errors[1] = ex;
+            succeeded.countDown();
+        });
+        awaitOnMainLooper(succeeded);
+        assertNull(errors[0]);
+        assertNull(errors[1]);
+        assertNotNull(accessToken[0]);
+    }
+
+    @Test
+    public void grantsOfADestroyedManagerDoNotStrandOthers() throws Exception {
+        // e.g. an activity recreated on rotation while its grant was still queued
+        AuthManager destroyed = newManager();
+        destroyed.destroy();
+
+        String[] tokens = new String[2];
+        AuthorizationException[] errors = new AuthorizationException[2];
+        CountDownLatch done = new CountDownLatch(2);
+        destroyed.getAccessToken("https://api.example.com/rotated", Collections.emptySet(),
+                (accessToken, ex) -> {
+                    tokens[0] = accessToken;
+                    errors[0] = ex;
+                    done.countDown();
+                });
+        mManager.getAccessToken("https://api.example.com/other", Collections.emptySet(),
+                (accessToken, ex) -> {
+                    tokens[1] = accessToken;
+                    errors[1] = ex;
+                    done.countDown();
+                });
+        awaitOnMainLooper(done);
+
+        assertNull(tokens[0]);
+        assertNotNull(errors[0]);
+        assertNotNull(tokens[1]);
+        assertNull(errors[1]);
+    }
+
+    private AuthManager newManager() {
+        return new AuthManager(
+                mContext, () -> { }, mConnections, new FakeConnectivitySignal(true));
+    }
+
+    private static void record(
+            AuthorizationException ex,
+            List<AuthorizationException> errors,
+            AtomicInteger callbacks,
+            CountDownLatch done) {
+        callbacks.incrementAndGet();
+        if (ex != null) {
+            errors.add(ex);
+        }
+        done.countDown();
+    }
+
+    private static AuthState signedInState(String refreshToken) {
+        AuthorizationRequest authRequest = new AuthorizationRequest.Builder(
+                CONFIG, Config.CLIENT_ID, ResponseTypeValues.CODE, Config.REDIRECT_URI)
+                .build();
+        AuthorizationResponse authResponse = new AuthorizationResponse.Builder(authRequest)
+                .setState(authRequest.state)
+                .setAuthorizationCode("code")
+                .build();
+        TokenResponse tokenResponse = new TokenResponse.Builder(
+                authResponse.createTokenExchangeRequest())
+                .setTokenType(TokenResponse.TOKEN_TYPE_BEARER)
+                .setAccessToken("access-0")
+                .setRefreshToken(refreshToken)
+                .build();
+
+        AuthState state = new AuthState(authResponse, null);
+        state.update(tokenResponse, null);
+        return state;
+    }
+
+    /**
+     * Waits for the latch while running the main looper, where AppAuth delivers token responses.
+     */
+    private static void awaitOnMainLooper(CountDownLatch latch) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(TIMEOUT_MS);
+        while (!latch.await(1, TimeUnit.MILLISECONDS)) {
+            if (System.nanoTime() > deadline) {
+                fail(latch.getCount() + " callbacks never arrived");
+            }
+            shadowOf(Looper.getMainLooper()).idle();
+        }
+    }
+
+    /**
+     * Runs the worker on {@link #THREADS} threads released at the same moment, rethrowing the
+     * first failure.
+     */
+    private static void runConcurrently(Worker worker) throws Exception {
+        CyclicBarrier barrier = new CyclicBarrier(THREADS);
+        List<Throwable> failures = new CopyOnWriteArrayList<>();
+        Thread[] threads = new Thread[THREADS];
+        for (int i = 0; i < THREADS; i++) {
+            int index = i;
+            threads[i] = new Thread(() -> {
+                try {
+                    barrier.await();
+                    worker.run(index);
+                } catch (Throwable t) {
+                    failures.add(t);
+                }
+            });
+            threads[i].start();
+        }
+
+        for (Thread thread : threads) {
+            thread.join(TIMEOUT_MS);
+        }
+        if (!failures.isEmpty()) {
+            throw new AssertionError("Worker failed", failures.get(0));
+        }
+    }
+
+    private static void report(String operation, long ops, long elapsedNanos, int grants) {
+        double seconds = elapsedNanos / 1e9;
+        System.out.printf("%s: %d ops, %d grants in %.1f ms, %.0f ops/sec%n",
+                operation, ops, grants, seconds * 1000, ops / seconds);
+    }
+
+    private interface Worker {
+        void run(int thread) throws Exception;
+    }
+
+    /**
+     * A token endpoint for refresh token grants that rotates the refresh token on every grant
+     * and rejects a spent one, like a provider with refresh token reuse detection. Tokens expire
+     * within the cache's expiry tolerance, so they are never served from the cache.
+     */
+    private static final class FakeTokenEndpoint implements FakeConnectionBuilder.Handler {
+        private final Map<String, Boolean> mSpent = new ConcurrentHashMap<>();
+        private final AtomicInteger mGrants = new AtomicInteger();
+        private final AtomicInteger mReuses = new AtomicInteger();
+        private volatile CountDownLatch mGate = new CountDownLatch(0);
+        // guarded by this
+        private int mGeneration;
+        private String mCurrentToken = "refresh-0";
+
+        /**
+         * Holds every response until {@link #release()}, so that requests pile up.
+         */
+        void hold() {
+            mGate = new CountDownLatch(1);
+        }
+
+        void release() {
+            mGate.countDown();
+        }
+
+        synchronized String currentToken() {
+            return mCurrentToken;
+        }
+
+        int getGrantCount() {
+            return mGrants.get();
+        }
+
+        int getReuseCount() {
+            return mReuses.get();
+        }
+
+        @NonNull
+        @Override
+        public FakeConnectionBuilder.Response handle(
+                @NonNull Uri uri,
+                @NonNull String requestBody) throws IOException {
+            try {
+                if (!mGate.await(TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                    throw new IOException("Endpoint held too long");
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new IOException(ex);
+            }
+
+            mGrants.incrementAndGet();
+            String refreshToken = parseForm(requestBody).get("refresh_token");
+            String accessToken;
+            String rotated;
+            synchronized (this) {
+                if (refreshToken == null || !refreshToken.equals(mCurrentToken)) {
+                    if (mSpent.containsKey(String.valueOf(refreshToken))) {
+                        mReuses.incrementAndGet();
+                    }
+                    return json(HttpURLConnection.HTTP_BAD_REQUEST,
+                            "{\"error\":\"invalid_grant\"}");
+                }
+
+                mGeneration++;
+                mSpent.put(refreshToken, true);
+                accessToken = "access-" + mGeneration;
+                rotated = "refresh-" + mGeneration;
+                mCurrentToken = rotated;
+            }
+
+            try {
+                return json(HttpURLConnection.HTTP_OK, new JSONObject()
+                        .put("access_token", accessToken)
+                        .put("token_type", TokenResponse.TOKEN_TYPE_BEARER)
+                        .put("expires_in", 30)
+                        .put("refresh_token", rotated)
+                        .toString());
+            } catch (JSONException ex) {
+                throw new IOException(ex);
+            }
+        }
+
+        private static FakeConnectionBuilder.Response json(int code, String body) {
+            return new FakeConnectionBuilder.Response(code, body, 0);
+        }
+
+        private static Map<String, String> parseForm(String body)
+                throws UnsupportedEncodingException {
+            Map<String, String> params = new HashMap<>();
+            for (String pair : body.split("&")) {
+                int separator = pair.indexOf('=');
+                if (separator > 0) {
+                    params.put(URLDecoder.decode(pair.substring(0, separator), "UTF-8"),
+                            URLDecoder.decode(pair.substring(separator + 1), "UTF-8"));
+                }
+            }
+            return params;
+        }
+    }
+}
@@ -0,0 +1,197 @@
+package com.plusauth.starter;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that {@link AuthOperationQueue} holds operations while offline, flushes them when
+ * connectivity returns, merges duplicates and gives up after the final attempt, and that
+ * operations dropped without finishing are reported.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class AuthOperationQueueTest {
+
+    private static final long BACKOFF_MS = 1;
+    private static final long TIMEOUT_MS = 5000;
+    private static final long QUIET_MS = 200;
+
+    private final FakeConnectivitySignal mConnectivity = new FakeConnectivitySignal(false);
+    private final List<AuthOperationQueue.Operation> mDropped = new CopyOnWriteArrayList<>();
+    private final List<Exception> mDropReasons = new CopyOnWriteArrayList<>();
+    private final AuthOperationQueue mQueue = new AuthOperationQueue(
+            mConnectivity,
+            (operation, reason) -> {
+                mDropped.add(operation);
+                mDropReasons.add(reason);
+            },
+            BACKOFF_MS);
+
+    @After
+    public void tearDown() {
+        mQueue.shutdown();
+    }
+
+    @Test
+    public void operationsAreHeldWhileOffline() throws Exception {
+        CountDownLatch ran = new CountDownLatch(1);
+
+        assertTrue(mQueue.submit(AuthOperationQueue.Operation.DISCOVERY,
+                (finalAttempt, done) -> {
+                    done.onFinished(false);
+                    ran.countDown();
+                }));
+
+        assertFalse("ran while offline", ran.await(QUIET_MS, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void heldOperationsRunWhenConnectivityReturns() throws Exception {
+        CountDownLatch ran = new CountDownLatch(2);
+        AuthOperationQueue.Task task = (finalAttempt, done) -> {
+            done.onFinished(false);
+            ran.countDown();
+        };
+        mQueue.submit(AuthOperationQueue.Operation.DISCOVERY, task);
+        mQueue.submit(AuthOperationQueue.Operation.USERINFO, task);
+
+        mConnectivity.fireConnected();
+
+        assertTrue("not flushed", ran.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void duplicateOperationsAreMerged() throws Exception {
+        AtomicInteger firstRuns = new AtomicInteger();
+        AtomicInteger secondRuns = new AtomicInteger();
+        CountDownLatch finished = new CountDownLatch(1);
+
+        assertTrue(mQueue.submit(AuthOperationQueue.Operation.USERINFO,
+                (finalAttempt, done) -> {
+                    firstRuns.incrementAndGet();
+                    done.onFinished(false);
+                    finished.countDown();
+                }));
+        assertFalse("duplicate was queued", mQueue.submit(AuthOperationQueue.Operation.USERINFO,
+                (finalAttempt, done) -> {
+                    secondRuns.incrementAndGet();
+                    done.onFinished(false);
+                }));
+
+        mConnectivity.fireConnected();
+        assertTrue("not flushed", finished.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        Thread.sleep(QUIET_MS);
+
+        assertEquals(1, firstRuns.get());
+        assertEquals(0, secondRuns.get());
+        // once the queued operation is done, the next one is queued again
+        assertTrue(mQueue.submit(AuthOperationQueue.Operation.USERINFO,
+                (finalAttempt, done) -> done.onFinished(false)));
+    }
+
+    @Test
+    public void transientFailuresAreRetriedUntilTheFinalAttempt() throws Exception {
+        mConnectivity.setConnected(true);
+        List<Boolean> finalAttempts = new CopyOnWriteArrayList<>();
+        CountDownLatch attempts = new CountDownLatch(AuthOperationQueue.MAX_ATTEMPTS);
+
+        mQueue.submit(AuthOperationQueue.Operation.REFRESH, (finalAttempt, done) -> {
+            finalAttempts.add(finalAttempt);
+            done.onFinished(true);
+            attempts.countDown();
+        });
+
+        assertTrue("not retried", attempts.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        Thread.sleep(QUIET_MS);
+
+        assertEquals(Arrays.asList(false, false, false, false, true), finalAttempts);
+        // a retry requested on the final attempt is ignored and the operation dropped
+        assertTrue(mQueue.submit(AuthOperationQueue.Operation.REFRESH,
+                (finalAttempt, done) -> done.onFinished(false)));
+    }
+
+    @Test
+    public void failuresWhileOfflineWaitForConnectivity() throws Exception {
+        mConnectivity.setConnected(true);
+        List<Boolean> finalAttempts = new CopyOnWriteArrayList<>();
+        CountDownLatch firstAttempt = new CountDownLatch(1);
+        CountDownLatch secondAttempt = new CountDownLatch(2);
+
+        mQueue.submit(AuthOperationQueue.Operation.DISCOVERY, (finalAttempt, done) -> {
+            finalAttempts.add(finalAttempt);
+            if (finalAttempts.size() == 1) {
+                mConnectivity.setConnected(false);
+                done.onFinished(true);
+            } else {
+                done.onFinished(false);
+            }
+            firstAttempt.countDown();
+            secondAttempt.countDown();
+        });
+
+        assertTrue("not started", firstAttempt.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        assertFalse("retried while offline",
+                secondAttempt.await(QUIET_MS, TimeUnit.MILLISECONDS));
+
+        mConnectivity.fireConnected();
+
+        assertTrue("not retried", secondAttempt.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        // the attempt count starts over after a flush
+        assertEquals(Arrays.asList(false, false), finalAttempts);
+    }
+
+    @Test
+    public void throwingTaskIsDroppedAndReported() throws Exception {
+        mConnectivity.setConnected(true);
+        RuntimeException failure = new IllegalStateException("no refresh token");
+        CountDownLatch attempted = new CountDownLatch(1);
+
+        mQueue.submit(AuthOperationQueue.Operation.REFRESH, (finalAttempt, done) -> {
+            attempted.countDown();
+            throw failure;
+        });
+        assertTrue("not started", attempted.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        Thread.sleep(QUIET_MS);
+
+        assertEquals(Collections.singletonList(AuthOperationQueue.Operation.REFRESH), mDropped);
+        assertSame(failure, mDropReasons.get(0));
+        // the next refresh is queued on its own rather than merged into the dead one
+        CountDownLatch ran = new CountDownLatch(1);
+        assertTrue(mQueue.submit(AuthOperationQueue.Operation.REFRESH, (finalAttempt, done) -> {
+            done.onFinished(false);
+            ran.countDown();
+        }));
+        assertTrue("not run", ran.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void shutdownReportsQueuedOperations() {
+        AuthOperationQueue.Task task = (finalAttempt, done) -> done.onFinished(false);
+        mQueue.submit(AuthOperationQueue.Operation.REFRESH, task);
+        mQueue.submit(AuthOperationQueue.Operation.USERINFO, task);
+
+        mQueue.shutdown();
+
+        assertEquals(Arrays.asList(
+                AuthOperationQueue.Operation.REFRESH,
+                AuthOperationQueue.Operation.USERINFO), mDropped);
+        for (Exception reason : mDropReasons) {
+            assertTrue(reason instanceof CancellationException);
+        }
+    }
+}
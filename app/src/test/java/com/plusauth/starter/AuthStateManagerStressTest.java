@@ -0,0 +1,230 @@
+package com.plusauth.starter;
+
+import android.content.Context;
+import android.net.Uri;
+
+import net.openid.appauth.AuthState;
+import net.openid.appauth.AuthorizationServiceConfiguration;
+import net.openid.appauth.GrantTypeValues;
+import net.openid.appauth.TokenRequest;
+import net.openid.appauth.TokenResponse;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Hammers {@link AuthStateManager} from many threads, checking for lost updates, torn states and
+ * duplicate singletons. Each test prints its throughput, so that changes to the locking can be
+ * compared against a baseline.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class AuthStateManagerStressTest {
+
+    private static final int THREADS = 8;
+    private static final int OPS_PER_THREAD = 250;
+    private static final int SINGLETON_ROUNDS = 50;
+
+    private Context mContext;
+    private AuthorizationServiceConfiguration mConfig;
+    private AuthStateManager mManager;
+
+    @Before
+    public void setUp() {
+        mContext = RuntimeEnvironment.application;
+        mConfig = new AuthorizationServiceConfiguration(
+                Uri.parse("https://example.plusauth.com/oauth2/authorize"),
+                Uri.parse("https://example.plusauth.com/oauth2/token"));
+
+        AuthStateManager.clearInstance();
+        mManager = AuthStateManager.getInstance(mContext);
+        mManager.replace(new AuthState(mConfig));
+    }
+
+    @After
+    public void tearDown() {
+        AuthStateManager.clearInstance();
+    }
+
+    @Test
+    public void concurrentTokenUpdatesAreNotLost() throws Exception {
+        AtomicLong sequence = new AtomicLong();
+        AtomicInteger lostUpdates = new AtomicInteger();
+
+        long elapsedNanos = runConcurrently(thread -> {
+            for (int i = 0; i < OPS_PER_THREAD; i++) {
+                long n = sequence.incrementAndGet();
+                AuthState updated = mManager.updateAfterTokenResponse(tokenResponse(n), null);
+                // the returned state must carry this update, not one applied by another thread
+                if (!accessToken(n).equals(updated.getAccessToken())) {
+                    lostUpdates.incrementAndGet();
+                }
+            }
+        });
+        report("updateAfterTokenResponse", THREADS * OPS_PER_THREAD, elapsedNanos);
+
+        assertEquals("lost updates", 0, lostUpdates.get());
+        assertEquals("memory and disk disagree", mManager.getCurrent().getAccessToken(),
+                reloadFromDisk().getAccessToken());
+    }
+
+    @Test
+    public void readersNeverSeeTornStates() throws Exception {
+        AtomicLong sequence = new AtomicLong();
+        AtomicBoolean writing = new AtomicBoolean(true);
+        AtomicInteger writersLeft = new AtomicInteger(THREADS / 2);
+        AtomicInteger tornStates = new AtomicInteger();
+        AtomicLong reads = new AtomicLong();
+
+        long elapsedNanos = runConcurrently(thread -> {
+            if (thread % 2 == 0) {
+                for (int i = 0; i < OPS_PER_THREAD; i++) {
+                    long n = sequence.incrementAndGet();
+                    if (i % 2 == 0) {
+                        mManager.updateAfterTokenResponse(tokenResponse(n), null);
+                    } else {
+                        AuthState replacement = new AuthState(mConfig);
+                        replacement.update(tokenResponse(n), null);
+                        mManager.replace(replacement);
+                    }
+                }
+                if (writersLeft.decrementAndGet() == 0) {
+                    writing.set(false);
+                }
+            } else {
+                while (writing.get()) {
+                    AuthState state = mManager.getCurrent();
+                    if (!isConsistent(state)) {
+                        tornStates.incrementAndGet();
+                    }
+                    // serializing walks every field, so it trips over concurrent mutation too
+                    AuthState.jsonDeserialize(state.jsonSerializeString());
+                    reads.incrementAndGet();
+                }
+            }
+        });
+        report("updateAfterTokenResponse/replace", THREADS / 2 * OPS_PER_THREAD, elapsedNanos);
+        report("getCurrent under writes", reads.get(), elapsedNanos);
+
+        assertEquals("torn states", 0, tornStates.get());
+        assertEquals("memory and disk disagree", mManager.getCurrent().getAccessToken(),
+                reloadFromDisk().getAccessToken());
+    }
+
+    @Test
+    public void racingGetInstanceCallsShareOneManager() throws Exception {
+        long totalNanos = 0;
+        for (int round = 0; round < SINGLETON_ROUNDS; round++) {
+            AuthStateManager.clearInstance();
+            ConcurrentLinkedQueue<AuthStateManager> managers = new ConcurrentLinkedQueue<>();
+
+            totalNanos += runConcurrently(thread ->
+                    managers.add(AuthStateManager.getInstance(mContext)));
+
+            AuthStateManager first = managers.peek();
+            for (AuthStateManager manager : managers) {
+                assertSame("round " + round + " created two managers", first, manager);
+            }
+        }
+        report("getInstance", THREADS * SINGLETON_ROUNDS, totalNanos);
+    }
+
+    private AuthState reloadFromDisk() {
+        AuthStateManager.clearInstance();
+        return AuthStateManager.getInstance(mContext).getCurrent();
+    }
+
+    private TokenResponse tokenResponse(long n) {
+        TokenRequest request = new TokenRequest.Builder(mConfig, "client")
+                .setGrantType(GrantTypeValues.REFRESH_TOKEN)
+                .setRefreshToken(refreshToken(0))
+                .build();
+        return new TokenResponse.Builder(request)
+                .setTokenType(TokenResponse.TOKEN_TYPE_BEARER)
+                .setAccessToken(accessToken(n))
+                .setRefreshToken(refreshToken(n))
+                .build();
+    }
+
+    private static String accessToken(long n) {
+        return "access-" + n;
+    }
+
+    private static String refreshToken(long n) {
+        return "refresh-" + n;
+    }
+
+    /**
+     * Every write pairs access-N with refresh-N, so a state holding tokens from two different
+     * writes was observed halfway through an update.
+     */
+    private static boolean isConsistent(AuthState state) {
+        String accessToken = state.getAccessToken();
+        String refreshToken = state.getRefreshToken();
+        if (accessToken == null || refreshToken == null) {
+            return accessToken == null && refreshToken == null;
+        }
+
+        return accessToken.substring("access-".length())
+                .equals(refreshToken.substring("refresh-".length()));
+    }
+
+    /**
+     * Runs the worker on {@link #THREADS} threads released at the same moment, rethrowing the
+     * first failure, and returns the wall time in nanoseconds.
+     */
+    private static long runConcurrently(Worker worker) throws Exception {
+        CyclicBarrier barrier = new CyclicBarrier(THREADS + 1);
+        List<Throwable> failures = new CopyOnWriteArrayList<>();
+        Thread[] threads = new Thread[THREADS];
+        for (int i = 0; i < THREADS; i++) {
+            int index = i;
+            threads[i] = new Thread(() -> {
+                try {
+                    barrier.await();
+                    worker.run(index);
+                } catch (Throwable t) {
+                    failures.add(t);
+                }
+            });
+            threads[i].start();
+        }
+
+        barrier.await();
+        long start = System.nanoTime();
+        for (Thread thread : threads) {
+            thread.join(TimeUnit.MINUTES.toMillis(1));
+        }
+        long elapsedNanos = System.nanoTime() - start;
+
+        if (!failures.isEmpty()) {
+            throw new AssertionError("Worker failed", failures.get(0));
+        }
+        return elapsedNanos;
+    }
+
+    private static void report(String operation, long ops, long elapsedNanos) {
+        double seconds = elapsedNanos / 1e9;
+        System.out.printf("%s: %d ops in %.1f ms, %.0f ops/sec%n",
+                operation, ops, seconds * 1000, ops / seconds);
+    }
+
+    private interface Worker {
+        void run(int thread) throws Exception;
+    }
+}
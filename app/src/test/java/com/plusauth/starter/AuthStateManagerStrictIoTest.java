@@ -0,0 +1,65 @@
+package com.plusauth.starter;
+
+import android.os.Looper;
+
+import net.openid.appauth.AuthState;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Checks that {@link AuthStateManager#setStrictMainThreadIo} turns disk access on the main thread
+ * into an exception, and leaves background threads alone.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class AuthStateManagerStrictIoTest {
+
+    private AuthStateManager mManager;
+
+    @Before
+    public void setUp() {
+        AuthStateManager.clearInstance();
+        mManager = AuthStateManager.getInstance(RuntimeEnvironment.application);
+        AuthStateManager.setStrictMainThreadIo(true);
+    }
+
+    @After
+    public void tearDown() {
+        AuthStateManager.setStrictMainThreadIo(BuildConfig.STRICT_AUTH_STATE_IO);
+        AuthStateManager.clearInstance();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void getCurrentThrowsOnMainThread() {
+        assertSame(Looper.getMainLooper(), Looper.myLooper());
+        mManager.getCurrent();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void replaceThrowsOnMainThread() {
+        assertSame(Looper.getMainLooper(), Looper.myLooper());
+        mManager.replace(new AuthState());
+    }
+
+    @Test
+    public void backgroundThreadsMayAccessDisk() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            AuthState replaced = executor.submit(() -> mManager.replace(new AuthState())).get();
+            assertNotNull(replaced);
+            assertSame(replaced, executor.submit(mManager::getCurrent).get());
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package com.plusauth.starter;
+
+import android.net.Uri;
+
+import androidx.annotation.NonNull;
+
+import net.openid.appauth.connectivity.ConnectionBuilder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A {@link ConnectionBuilder} that answers requests from a {@link Handler} instead of the
+ * network, so that {@link HedgedGet} and AppAuth's token requests can be tested against a fake
+ * identity provider. Each response can be delayed; a connection disconnected while its response
+ * is delayed fails like an aborted request.
+ */
+public class FakeConnectionBuilder implements ConnectionBuilder {
+
+    private final Handler mHandler;
+    private final List<FakeConnection> mOpened = new CopyOnWriteArrayList<>();
+
+    public FakeConnectionBuilder(@NonNull Handler handler) {
+        mHandler = handler;
+    }
+
+    @NonNull
+    @Override
+    public HttpURLConnection openConnection(@NonNull Uri uri) throws IOException {
+        FakeConnection connection = new FakeConnection(uri);
+        mOpened.add(connection);
+        return connection;
+    }
+
+    /**
+     * Returns the connections opened so far, in the order they were opened.
+     */
+    public List<FakeConnection> getOpened() {
+        return mOpened;
+    }
+
+    public interface Handler {
+        /**
+         * Answers a request. Called once per connection, when its response is first read.
+         */
+        @NonNull
+        Response handle(@NonNull Uri uri, @NonNull String requestBody) throws IOException;
+    }
+
+    public static final class Response {
+        final int code;
+        final String body;
+        final long delayMs;
+
+        public Response(int code, @NonNull String body, long delayMs) {
+            this.code = code;
+            this.body = body;
+            this.delayMs = delayMs;
+        }
+
+        public static Response ok(@NonNull String body) {
+            return new Response(HttpURLConnection.HTTP_OK, body, 0);
+        }
+
+        public static Response ok(@NonNull String body, long delayMs) {
+            return new Response(HttpURLConnection.HTTP_OK, body, delayMs);
+        }
+    }
+
+    public final class FakeConnection extends HttpURLConnection {
+        private final Uri mUri;
+        private final ByteArrayOutputStream mRequestBody = new ByteArrayOutputStream();
+        private final CountDownLatch mDisconnected = new CountDownLatch(1);
+        // guarded by this
+        private Response mResponse;
+
+        FakeConnection(Uri uri) throws IOException {
+            super(new URL(uri.toString()));
+            mUri = uri;
+        }
+
+        @Override
+        public void connect() {
+            connected = true;
+        }
+
+        @Override
+        public void disconnect() {
+            mDisconnected.countDown();
+        }
+
+        public boolean isDisconnected() {
+            return mDisconnected.getCount() == 0;
+        }
+
+        @Override
+        public boolean usingProxy() {
+            return false;
+        }
+
+        @Override
+        public OutputStream getOutputStream() {
+            return mRequestBody;
+        }
+
+        @Override
+        public synchronized int getResponseCode() throws IOException {
+            if (mResponse == null) {
+                Response response = mHandler.handle(
+                        mUri, new String(mRequestBody.toByteArray(), StandardCharsets.UTF_8));
+                try {
+                    if (mDisconnected.await(response.delayMs, TimeUnit.MILLISECONDS)) {
+                        throw new IOException("Connection aborted");
+                    }
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Connection aborted");
+                }
+                mResponse = response;
+            }
+            return mResponse.code;
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException {
+            int code = getResponseCode();
+            if (code >= HTTP_BAD_REQUEST) {
+                throw new IOException("Server returned " + code);
+            }
+            return body();
+        }
+
+        @Override
+        public synchronized InputStream getErrorStream() {
+            return mResponse != null && mResponse.code >= HTTP_BAD_REQUEST ? body() : null;
+        }
+
+        private synchronized InputStream body() {
+            return new ByteArrayInputStream(mResponse.body.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+}
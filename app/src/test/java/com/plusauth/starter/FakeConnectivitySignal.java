@@ -0,0 +1,46 @@
+package com.plusauth.starter;
+
+import androidx.annotation.Nullable;
+
+/**
+ * A {@link ConnectivitySignal} whose connectivity is set by the test. Nothing is signalled until
+ * the test calls {@link #fireConnected()}.
+ */
+public class FakeConnectivitySignal implements ConnectivitySignal {
+
+    private volatile boolean mConnected;
+    private volatile Runnable mListener;
+
+    public FakeConnectivitySignal(boolean connected) {
+        mConnected = connected;
+    }
+
+    @Override
+    public boolean isConnected() {
+        return mConnected;
+    }
+
+    @Override
+    public void setOnConnectedListener(@Nullable Runnable listener) {
+        mListener = listener;
+    }
+
+    /**
+     * Changes what {@link #isConnected()} reports, without notifying the listener.
+     */
+    public void setConnected(boolean connected) {
+        mConnected = connected;
+    }
+
+    /**
+     * Goes online and notifies the listener, as the platform does when a network becomes
+     * available.
+     */
+    public void fireConnected() {
+        mConnected = true;
+        Runnable listener = mListener;
+        if (listener != null) {
+            listener.run();
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package com.plusauth.starter;
+
+import android.net.Uri;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks winner selection, cancellation, the hedge budget and the p95 hedge delay of
+ * {@link HedgedGet}, against connections whose latency is set per attempt.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class HedgedGetTest {
+
+    private static final Uri URI =
+            Uri.parse("https://example.plusauth.com/.well-known/openid-configuration");
+
+    // longer than the default hedge delay of one second
+    private static final long SLOW_MS = 1500;
+    // never answers within the test; only a cancelled attempt gets this slow
+    private static final long HANG_MS = TimeUnit.SECONDS.toMillis(30);
+    // enough fast requests to fill the latency window and the hedge budget
+    private static final int WARM_UP_REQUESTS = 64;
+
+    // the attempt within the current request, so that the primary and the hedge can differ
+    private final AtomicInteger mAttempt = new AtomicInteger();
+    private volatile FakeConnectionBuilder.Response mPrimary;
+    private volatile FakeConnectionBuilder.Response mHedge;
+
+    private final FakeConnectionBuilder mConnections = new FakeConnectionBuilder((uri, body) ->
+            mAttempt.getAndIncrement() == 0 ? mPrimary : mHedge);
+
+    @Test
+    public void disabledHedgingSendsOneAttempt() throws Exception {
+        HedgedGet hedgedGet = new HedgedGet(false, mConnections);
+
+        assertEquals("primary", get(hedgedGet, ok("primary", SLOW_MS), ok("hedge", 0)));
+
+        assertEquals(1, mConnections.getOpened().size());
+        assertEquals(0, hedgedGet.getHedgesFired());
+    }
+
+    @Test
+    public void fastResponseIsNotHedged() throws Exception {
+        HedgedGet hedgedGet = new HedgedGet(true, mConnections);
+
+        assertEquals("primary", get(hedgedGet, ok("primary", 0), ok("hedge", 0)));
+
+        assertEquals(1, mConnections.getOpened().size());
+        assertEquals(0, hedgedGet.getHedgesFired());
+    }
+
+    @Test
+    public void fasterHedgeWinsAndPrimaryIsCancelled() throws Exception {
+        HedgedGet hedgedGet = new HedgedGet(true, mConnections);
+
+        assertEquals("hedge", get(hedgedGet, ok("primary", HANG_MS), ok("hedge", 0)));
+
+        assertEquals(1, hedgedGet.getHedgesFired());
+        assertEquals(1, hedgedGet.getHedgesWon());
+        assertTrue("primary not cancelled", mConnections.getOpened().get(0).isDisconnected());
+    }
+
+    @Test
+    public void fasterPrimaryWinsAndHedgeIsCancelled() throws Exception {
+        HedgedGet hedgedGet = new HedgedGet(true, mConnections);
+
+        assertEquals("primary", get(hedgedGet, ok("primary", SLOW_MS), ok("hedge", HANG_MS)));
+
+        assertEquals(1, hedgedGet.getHedgesFired());
+        assertEquals(0, hedgedGet.getHedgesWon());
+        assertTrue("hedge not cancelled", mConnections.getOpened().get(1).isDisconnected());
+    }
+
+    @Test
+    public void errorStatusIsReported() throws Exception {
+        HedgedGet hedgedGet = new HedgedGet(true, mConnections);
+
+        try {
+            get(hedgedGet, new FakeConnectionBuilder.Response(503, "", 0), ok("hedge", 0));
+            fail("expected an HttpStatusException");
+        } catch (HedgedGet.HttpStatusException ex) {
+            assertEquals(503, ex.responseCode);
+        }
+        assertTrue(mConnections.getOpened().get(0).isDisconnected());
+    }
+
+    @Test
+    public void hedgeDelayFollowsObservedP95() throws Exception {
+        HedgedGet hedgedGet = new HedgedGet(true, mConnections);
+        warmUp(hedgedGet);
+
+        long start = System.nanoTime();
+        assertEquals("hedge", get(hedgedGet, ok("primary", HANG_MS), ok("hedge", 0)));
+        long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        // with only fast samples the hedge goes out after the minimum delay, not the default
+        assertTrue("hedged after " + elapsedMs + "ms", elapsedMs < 1000);
+        assertEquals(1, hedgedGet.getHedgesFired());
+    }
+
+    @Test
+    public void hedgeBudgetCapsExtraRequests() throws Exception {
+        HedgedGet hedgedGet = new HedgedGet(true, mConnections);
+        warmUp(hedgedGet);
+
+        // the budget is capped at five hedges, and each request earns a tenth of one back
+        for (int i = 0; i < 8; i++) {
+            get(hedgedGet, ok("primary", 300), ok("hedge", 0));
+        }
+
+        assertEquals(WARM_UP_REQUESTS + 8, hedgedGet.getRequestCount());
+        assertEquals(5, hedgedGet.getHedgesFired());
+        assertEquals(5, hedgedGet.getHedgesWon());
+    }
+
+    private void warmUp(HedgedGet hedgedGet) throws Exception {
+        for (int i = 0; i < WARM_UP_REQUESTS; i++) {
+            get(hedgedGet, ok("primary", 0), ok("hedge", 0));
+        }
+        assertEquals(0, hedgedGet.getHedgesFired());
+    }
+
+    private String get(
+            HedgedGet hedgedGet,
+            FakeConnectionBuilder.Response primary,
+            FakeConnectionBuilder.Response hedge) throws Exception {
+        mPrimary = primary;
+        mHedge = hedge;
+        mAttempt.set(0);
+        return hedgedGet.get(URI, Collections.emptyMap());
+    }
+
+    private static FakeConnectionBuilder.Response ok(String body, long delayMs) {
+        return FakeConnectionBuilder.Response.ok(body, delayMs);
+    }
+}
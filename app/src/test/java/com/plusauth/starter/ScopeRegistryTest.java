@@ -0,0 +1,87 @@
+package com.plusauth.starter;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class ScopeRegistryTest {
+
+    @Test
+    public void knownScopesAreRegisteredUpFront() {
+        ScopeRegistry registry = new ScopeRegistry("openid email profile");
+
+        assertEquals(0, registry.indexOf("openid"));
+        assertEquals(1, registry.indexOf("email"));
+        assertEquals(2, registry.indexOf("profile"));
+        assertEquals(-1, registry.indexOf("admin"));
+    }
+
+    @Test
+    public void internIsStable() {
+        ScopeRegistry registry = new ScopeRegistry("openid");
+
+        int index = registry.intern("admin");
+        assertEquals(1, index);
+        assertEquals(index, registry.intern("admin"));
+        assertEquals(index, registry.indexOf("admin"));
+    }
+
+    @Test
+    public void internReturnsMinusOneOnceFull() {
+        ScopeRegistry registry = fullRegistry();
+
+        assertEquals(-1, registry.intern("overflow"));
+        assertEquals(-1, registry.indexOf("overflow"));
+        // scopes registered before the registry filled up keep their index
+        assertEquals(0, registry.intern("scope0"));
+    }
+
+    @Test
+    public void ofDoesNotRegisterScopes() {
+        ScopeRegistry registry = new ScopeRegistry("openid");
+
+        registry.of("admin", "billing");
+
+        assertEquals(-1, registry.indexOf("admin"));
+        assertEquals(-1, registry.indexOf("billing"));
+        assertEquals(1, registry.intern("read"));
+    }
+
+    @Test
+    public void parseRegistersGrantedScopes() {
+        ScopeRegistry registry = new ScopeRegistry("openid");
+
+        ScopeSet granted = registry.parse("openid  read write ");
+
+        assertTrue(granted.contains("read"));
+        assertTrue(granted.contains("write"));
+        assertTrue(granted.containsAll(registry.of("openid", "read", "write")));
+        assertTrue(registry.parse(null).isEmpty());
+        assertTrue(registry.parse("").isEmpty());
+    }
+
+    @Test
+    public void parseOnFullRegistryFailsClosed() {
+        ScopeRegistry registry = fullRegistry();
+
+        ScopeSet granted = registry.parse("scope0 overflow");
+
+        assertTrue(granted.contains("scope0"));
+        assertFalse(granted.contains("overflow"));
+        assertFalse(granted.isEmpty());
+        assertFalse(registry.of("scope0").containsAll(granted));
+    }
+
+    static ScopeRegistry fullRegistry() {
+        StringBuilder scopes = new StringBuilder();
+        for (int i = 0; i < ScopeRegistry.MAX_SCOPES; i++) {
+            scopes.append("scope").append(i).append(' ');
+        }
+        return new ScopeRegistry(scopes.toString());
+    }
+}
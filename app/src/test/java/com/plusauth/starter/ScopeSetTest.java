@@ -0,0 +1,69 @@
+package com.plusauth.starter;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class ScopeSetTest {
+
+    private final ScopeRegistry mRegistry = new ScopeRegistry("openid email profile read write");
+
+    @Test
+    public void containsChecksSingleScopes() {
+        ScopeSet granted = mRegistry.parse("openid read");
+
+        assertTrue(granted.contains("openid"));
+        assertTrue(granted.contains("read"));
+        assertFalse(granted.contains("write"));
+        assertFalse(granted.contains("admin"));
+    }
+
+    @Test
+    public void containsAllAndAnyCompareMasks() {
+        ScopeSet granted = mRegistry.parse("openid email read");
+
+        assertTrue(granted.containsAll(mRegistry.of("openid", "read")));
+        assertFalse(granted.containsAll(mRegistry.of("read", "write")));
+        assertTrue(granted.containsAny(mRegistry.of("read", "write")));
+        assertFalse(granted.containsAny(mRegistry.of("profile", "write")));
+        assertTrue(granted.containsAll(mRegistry.of()));
+    }
+
+    @Test
+    public void unknownScopesAreNeverSatisfied() {
+        ScopeSet granted = mRegistry.parse("openid email profile read write");
+
+        ScopeSet admin = mRegistry.of("admin");
+        assertFalse(admin.isEmpty());
+        assertFalse(granted.containsAll(admin));
+        assertFalse(granted.containsAll(mRegistry.of("openid", "admin")));
+        assertFalse(granted.containsAny(admin));
+    }
+
+    @Test
+    public void unknownScopesAreNeverSatisfiedOnFullRegistry() {
+        ScopeRegistry registry = ScopeRegistryTest.fullRegistry();
+        ScopeSet granted = registry.parse("scope0 scope1");
+
+        assertFalse(granted.containsAll(registry.of("admin")));
+        // the scope was not registered by the lookup
+        assertEquals(-1, registry.indexOf("admin"));
+    }
+
+    @Test
+    public void equalSetsHaveEqualHashCodes() {
+        ScopeSet a = mRegistry.parse("read openid");
+        ScopeSet b = mRegistry.of("openid", "read");
+
+        assertEquals(a, b);
+        assertEquals(a.hashCode(), b.hashCode());
+        assertNotEquals(a, mRegistry.of("openid"));
+        assertNotEquals(mRegistry.of("admin"), mRegistry.of("billing"));
+    }
+}